@@ -0,0 +1,150 @@
+package logic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+/**
+ * Loads line based data files (JSON or TSV, one document per line) into a
+ * collection. The calling thread reads lines and hands them to a pool of parse
+ * workers in batches; every worker parses its batch and writes it with a
+ * single unordered bulk insert. The number of batches in flight is bounded, so
+ * memory stays constant regardless of the file size.
+ *
+ * The defaults can be overridden with the system properties
+ * {@code bulk.batchSize}, {@code bulk.inFlight} and {@code bulk.workers}.
+ */
+public class BulkLoader {
+
+	/**
+	 * Turns one line of the input into a document.
+	 */
+	public interface LineParser {
+		/**
+		 * @return the document, or null to skip the line
+		 */
+		DBObject parse(String line);
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final DBCollection collection;
+	private final int batchSize;
+	private final int inFlight;
+	private final int workers;
+	private final WriteConcern writeConcern;
+
+	public BulkLoader(DBCollection collection) {
+		this(collection, Integer.getInteger("bulk.batchSize", 1000), Integer.getInteger("bulk.inFlight", 8), Integer
+				.getInteger("bulk.workers", Runtime.getRuntime().availableProcessors()));
+	}
+
+	public BulkLoader(DBCollection collection, int batchSize, int inFlight, int workers) {
+		this.collection = collection;
+		this.batchSize = batchSize;
+		this.inFlight = inFlight;
+		this.workers = workers;
+		// Unordered: a failing document (e.g. duplicate key) does not stop the
+		// rest of its batch
+		this.writeConcern = WriteConcern.ACKNOWLEDGED.continueOnErrorForInsert(true);
+	}
+
+	/**
+	 * Reads the stream to its end and inserts all parsed documents.
+	 *
+	 * @return the number of inserted documents
+	 */
+	public long load(InputStream in, final LineParser parser) {
+		long start = System.nanoTime();
+		final AtomicLong documents = new AtomicLong();
+		final AtomicLong failedBatches = new AtomicLong();
+		final AtomicReference<RuntimeException> parseError = new AtomicReference<RuntimeException>();
+		final Semaphore permits = new Semaphore(inFlight);
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8), 1 << 16)) {
+			List<String> lines = new ArrayList<String>(batchSize);
+			String line;
+			while (parseError.get() == null) {
+				line = reader.readLine();
+				if (line != null && line.length() > 0) {
+					lines.add(line);
+				}
+				if (lines.size() == batchSize || (line == null && !lines.isEmpty())) {
+					permits.acquire();
+					final List<String> batch = lines;
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								List<DBObject> docs = new ArrayList<DBObject>(batch.size());
+								for (String raw : batch) {
+									DBObject doc = parser.parse(raw);
+									if (doc != null) {
+										docs.add(doc);
+									}
+								}
+								if (!docs.isEmpty()) {
+									collection.insert(docs, writeConcern);
+									documents.addAndGet(docs.size());
+								}
+							} catch (MongoException e) {
+								failedBatches.incrementAndGet();
+								System.err.println("Bulk insert into " + collection.getName() + " failed: "
+										+ e.getMessage());
+							} catch (RuntimeException e) {
+								parseError.compareAndSet(null, e);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+					lines = new ArrayList<String>(batchSize);
+				}
+				if (line == null) {
+					break;
+				}
+			}
+			// Wait for the last batches
+			permits.acquire(inFlight);
+			permits.release(inFlight);
+		} catch (IOException e) {
+			throw new MongoException("Could not read input for " + collection.getName(), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MongoException("Interrupted while loading " + collection.getName(), e);
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if (parseError.get() != null) {
+			throw parseError.get();
+		}
+
+		long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		System.out.println("Loaded " + documents.get() + " documents into " + collection.getName() + " in " + millis
+				+ " ms (" + documents.get() * 1000 / millis + " docs/s" + (failedBatches.get() > 0 ? ", "
+				+ failedBatches.get() + " batches with errors" : "") + ")");
+		return documents.get();
+	}
+}
@@ -0,0 +1,185 @@
+package logic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mongodb.MongoException;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+
+/**
+ * Keeps the bytes of recently served GridFS images in memory. Images are
+ * stored by their md5, so files with the same content share one copy, and
+ * evicted least recently used first once {@code images.cacheBytes} (default
+ * 64 MB) are exceeded. Files larger than {@code images.maxCachedBytes}
+ * (default 4 MB) are not cached but streamed from GridFS.
+ *
+ * The md5 of every requested name is remembered as well, including names
+ * without a file, so a cached image costs no query at all. Names have to be
+ * invalidated when their file changes.
+ */
+public class ImageCache {
+
+	private static final int MAX_NAMES = 10000;
+	private static final String MISSING = "";
+
+	/**
+	 * An image with either its bytes or, if too large to cache, its file.
+	 */
+	public static class Image {
+		final String name;
+		final String md5;
+		final String contentType;
+		final long length;
+		final Date uploadDate;
+		final byte[] bytes;
+		final GridFSDBFile file;
+
+		Image(GridFSDBFile file, byte[] bytes) {
+			this.name = file.getFilename();
+			this.md5 = file.getMD5();
+			this.contentType = file.getContentType();
+			this.length = file.getLength();
+			this.uploadDate = file.getUploadDate();
+			this.bytes = bytes;
+			this.file = bytes == null ? file : null;
+		}
+
+		/**
+		 * @return the GridFS file name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public String getMD5() {
+			return md5;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public Date getUploadDate() {
+			return uploadDate;
+		}
+
+		/**
+		 * @return the content, or null if the image is streamed from GridFS
+		 */
+		public byte[] getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * @return a stream of the content
+		 */
+		public InputStream getInputStream() {
+			return file.getInputStream();
+		}
+	}
+
+	private final GridFS fs;
+	private final long maxBytes;
+	private final long maxImageBytes;
+	private long cachedBytes;
+	// Bumped by invalidate(), so a load that raced with it is not remembered
+	private long generation;
+
+	private final LinkedHashMap<String, Image> images = new LinkedHashMap<String, Image>(64, 0.75f, true);
+	private final LinkedHashMap<String, String> md5ByName = new LinkedHashMap<String, String>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_NAMES;
+		}
+	};
+
+	public ImageCache(GridFS fs) {
+		this(fs, Long.getLong("images.cacheBytes", 64L << 20), Long.getLong("images.maxCachedBytes", 4L << 20));
+	}
+
+	public ImageCache(GridFS fs, long maxBytes, long maxImageBytes) {
+		this.fs = fs;
+		this.maxBytes = maxBytes;
+		this.maxImageBytes = maxImageBytes;
+	}
+
+	/**
+	 * @return the image with the given file name, or null if there is none
+	 */
+	public Image get(String name) {
+		long loadGeneration;
+		synchronized (this) {
+			loadGeneration = generation;
+			String md5 = md5ByName.get(name);
+			if (MISSING.equals(md5)) {
+				return null;
+			}
+			Image image = md5 == null ? null : images.get(md5);
+			if (image != null) {
+				return image;
+			}
+		}
+
+		// Load outside the lock, so a slow read does not block cache hits
+		GridFSDBFile file = fs.findOne(name);
+		if (file == null) {
+			synchronized (this) {
+				if (generation == loadGeneration) {
+					md5ByName.put(name, MISSING);
+				}
+			}
+			return null;
+		}
+		if (file.getLength() > maxImageBytes || file.getMD5() == null) {
+			return new Image(file, null);
+		}
+		Image image = new Image(file, read(file));
+		synchronized (this) {
+			if (generation == loadGeneration) {
+				md5ByName.put(name, image.md5);
+			}
+			Image old = images.put(image.md5, image);
+			if (old != null) {
+				cachedBytes -= old.length;
+			}
+			cachedBytes += image.length;
+			Iterator<Image> eldest = images.values().iterator();
+			while (cachedBytes > maxBytes && eldest.hasNext()) {
+				cachedBytes -= eldest.next().length;
+				eldest.remove();
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Forget the file of a name, e.g. after it was replaced. Its bytes stay
+	 * cached for other names with the same content until they are evicted.
+	 */
+	public synchronized void invalidate(String name) {
+		md5ByName.remove(name);
+		generation++;
+	}
+
+	private static byte[] read(GridFSDBFile file) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.getLength());
+		try {
+			file.writeTo(bytes);
+		} catch (IOException e) {
+			throw new MongoException("Could not read " + file.getFilename(), e);
+		}
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,231 @@
+package logic;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+/**
+ * Generates smaller variants of uploaded images in the background. A variant
+ * is stored in GridFS next to the original as {@code name@size}, e.g.
+ * {@code 1234@thumb}, scaled to the width of its {@link Size} and recompressed
+ * as JPEG (PNG if the image has transparency). Originals that are already
+ * small enough are stored unchanged, so every original gets its variants.
+ *
+ * Generation runs on a single daemon thread with a bounded queue; requests
+ * beyond it are dropped and retried the next time the variant is asked for.
+ */
+public class ImageVariants {
+
+	/**
+	 * The generated sizes.
+	 */
+	public enum Size {
+		THUMB(160), MEDIUM(400);
+
+		final int width;
+
+		Size(int width) {
+			this.width = width;
+		}
+
+		/**
+		 * @return the size with the given name, ignoring case, or null
+		 */
+		public static Size parse(String name) {
+			for (Size size : values()) {
+				if (size.name().equalsIgnoreCase(name)) {
+					return size;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final float JPEG_QUALITY = 0.8f;
+
+	private final GridFS fs;
+	private final ImageCache cache;
+	private final ExecutorService executor;
+	// Originals queued or being processed, so repeated requests queue once
+	private final Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// Originals replaced while pending, generated again once the job ends
+	private final Set<String> replaced = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public ImageVariants(GridFS fs, ImageCache cache) {
+		this.fs = fs;
+		this.cache = cache;
+		this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(
+				100), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "image-variants");
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the GridFS file name of a variant
+	 */
+	public static String variantName(String name, Size size) {
+		return name + "@" + size.name().toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Remove the variants of an original, e.g. before it is replaced.
+	 */
+	public void remove(String name) {
+		for (Size size : Size.values()) {
+			String variant = variantName(name, size);
+			fs.remove(variant);
+			cache.invalidate(variant);
+		}
+	}
+
+	/**
+	 * Queue generating all variants of an original, unless that is already
+	 * queued or running.
+	 */
+	public void generate(String name) {
+		queue(name);
+	}
+
+	/**
+	 * Queue generating all variants of an original that was just replaced.
+	 * If a job for the old original is still running, the variants are
+	 * generated again after it, overwriting what it saved.
+	 */
+	public void regenerate(String name) {
+		// Marked before checking pending: the job checks the mark after
+		// leaving pending, so one of the two sees the other
+		replaced.add(name);
+		queue(name);
+	}
+
+	private void queue(final String name) {
+		if (!pending.add(name)) {
+			return;
+		}
+		replaced.remove(name);
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						generateNow(name);
+					} catch (IOException | RuntimeException e) {
+						System.err.println("Could not create variants of " + name + ": " + e);
+					} finally {
+						pending.remove(name);
+						if (replaced.contains(name)) {
+							queue(name);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pending.remove(name);
+		}
+	}
+
+	private void generateNow(String name) throws IOException {
+		GridFSDBFile original = fs.findOne(name);
+		if (original == null) {
+			return;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) original.getLength());
+		original.writeTo(bytes);
+		byte[] content = bytes.toByteArray();
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+
+		for (Size size : Size.values()) {
+			byte[] variant = content;
+			String contentType = original.getContentType();
+			if (image != null && image.getWidth() > size.width) {
+				BufferedImage scaled = scale(image, size.width);
+				boolean alpha = image.getColorModel().hasAlpha();
+				variant = alpha ? encodePng(scaled) : encodeJpeg(scaled);
+				contentType = alpha ? "image/png" : "image/jpeg";
+			}
+			String variantName = variantName(name, size);
+			fs.remove(variantName);
+			GridFSInputFile file = fs.createFile(variant);
+			file.setFilename(variantName);
+			file.setContentType(contentType);
+			file.save();
+			cache.invalidate(variantName);
+		}
+	}
+
+	private static BufferedImage scale(BufferedImage image, int width) {
+		int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+		boolean alpha = image.getColorModel().hasAlpha();
+		BufferedImage current = image;
+		int currentWidth = image.getWidth();
+		int currentHeight = image.getHeight();
+		// Halve step by step: a single bilinear step loses detail when
+		// shrinking by more than half
+		do {
+			currentWidth = Math.max(width, currentWidth / 2);
+			currentHeight = Math.max(height, currentHeight / 2);
+			BufferedImage next = new BufferedImage(currentWidth, currentHeight, alpha ? BufferedImage.TYPE_INT_ARGB
+					: BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+			g.dispose();
+			current = next;
+		} while (currentWidth > width);
+		return current;
+	}
+
+	private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+			writer.setOutput(out);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(JPEG_QUALITY);
+			param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return bytes.toByteArray();
+	}
+
+	private static byte[] encodePng(BufferedImage image) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ImageIO.write(image, "png", bytes);
+		return bytes.toByteArray();
+	}
+}
@@ -2,9 +2,8 @@ package logic;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
-import com.mongodb.BasicDBList;
+import com.google.inject.Singleton;
 import com.mongodb.BasicDBObject;
-import com.mongodb.CommandResult;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
@@ -14,10 +13,13 @@ import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSInputFile;
 import com.mongodb.util.JSON;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
+import org.bson.types.ObjectId;
 import twitter4j.GeoLocation;
 import twitter4j.Status;
 import twitter4j.json.DataObjectFactory;
@@ -26,39 +28,219 @@ import twitter4j.json.DataObjectFactory;
  * This class holds the data/backend logic for the Movie Web-App. It uses
  * MongoDB to perform different kinds of queries.
  */
+@Singleton
 public class MovieService extends MovieServiceBase {
 
 	private final DB db;
 	private final DBCollection movies;
 	private final DBCollection tweets;
+	private final TweetBuckets tweetBuckets;
 	private final GridFS fs;
+	private final ImageCache imageCache;
+	private final ImageVariants imageVariants;
+	private final WarmUp warmUp;
+	private final TitleTrie titleIndex = new TitleTrie();
+	private final TrigramIndex fuzzyTitleIndex = new TrigramIndex();
+	private final TweetTermIndex tweetTermIndex = new TweetTermIndex();
+	private final TweetSearchIndex tweetSearchIndex = new TweetSearchIndex();
+	private final TweetClusters tweetClusters = new TweetClusters();
+	private final TweetFeed tweetFeed = new TweetFeed();
+	private final TweetWriter tweetWriter;
+
+	/** Warm-up task names */
+	public static final String SAMPLE_IMAGE = "sampleImage";
+	public static final String MOVIE_DATA = "movieData";
+	public static final String INDEXES = "indexes";
+	public static final String TITLE_INDEX = "titleIndex";
+	public static final String TWEET_BUCKETS = "tweetBuckets";
+	public static final String TWEET_INDEX = "tweetIndex";
+	public static final String TWEET_SEARCH = "tweetSearch";
+	public static final String TWEET_CLUSTERS = "tweetClusters";
 
 	/**
-	 * Create a new MovieService by connecting to MongoDB.
+	 * Create a new MovieService by connecting to MongoDB. Seeding and index
+	 * builds run in the background, see {@link #getWarmUp()}.
 	 */
 	@Inject
 	public MovieService(DB db) {
 		this.db = db;
 		// Create a GriFS FileSystem Object using the db
 		fs = new GridFS(db);
-		// See this method on how to use GridFS
-		createSampleImage();
+		imageCache = new ImageCache(fs);
+		imageVariants = new ImageVariants(fs, imageCache);
 
 		// Take "movies" and "tweets" collection
 		movies = db.getCollection("movies");
 		tweets = db.getCollection("tweets");
+		tweetBuckets = new TweetBuckets(movies, db.getCollection("tweet_buckets"));
+		tweetWriter = new TweetWriter(tweetBuckets, tweets, new TweetWriter.Listener() {
+			@Override
+			public void written(String movie, DBObject raw, DBObject embedded) {
+				indexTweet(movie, raw, embedded);
+			}
+		});
+
+		warmUp = new WarmUp("movie-service");
+		warmUp.submit(SAMPLE_IMAGE, new Runnable() {
+			@Override
+			public void run() {
+				// See this method on how to use GridFS
+				if (fs.findOne("sample.png") == null) {
+					createSampleImage();
+				}
+			}
+		});
+		warmUp.submit(MOVIE_DATA, new Runnable() {
+			@Override
+			public void run() {
+				// If movie database isn't filled (has less than 10000 documents)
+				// delete everything and fill it
+				if (movies.count() < 10000) {
+					createMovieData();
+				}
+			}
+		});
+		warmUp.submit(TITLE_INDEX, new Runnable() {
+			@Override
+			public void run() {
+				rebuildTitleIndex();
+			}
+		});
+		warmUp.submit(TWEET_BUCKETS, new Runnable() {
+			@Override
+			public void run() {
+				// Tweets embedded by older versions or the seed data
+				tweetBuckets.createIndexes();
+				tweetBuckets.migrateEmbedded();
+			}
+		});
+		warmUp.submit(TWEET_INDEX, new Runnable() {
+			@Override
+			public void run() {
+				rebuildTweetIndex();
+			}
+		});
+		warmUp.submit(TWEET_SEARCH, new Runnable() {
+			@Override
+			public void run() {
+				rebuildTweetSearch();
+			}
+		});
+		warmUp.submit(TWEET_CLUSTERS, new Runnable() {
+			@Override
+			public void run() {
+				rebuildTweetClusters();
+			}
+		});
+		warmUp.submit(INDEXES, new Runnable() {
+			@Override
+			public void run() {
+				createIndexes();
+			}
+		});
+	}
 
-		// If movie database isn't filled (has less than 10000 documents) delete
-		// everything and fill it
-		if (movies.count() < 10000) {
-			createMovieData();
+	/**
+	 * Reload the typeahead index from the movies collection. Only title, votes
+	 * and rating are transferred.
+	 */
+	public void rebuildTitleIndex() {
+		DBObject projection = new BasicDBObject("title", 1).append("votes", 1).append("rating", 1);
+		List<TitleTrie.Entry> entries = new ArrayList<TitleTrie.Entry>();
+		DBCursor cursor = movies.find(new BasicDBObject(), projection).batchSize(5000);
+		try {
+			for (DBObject movie : cursor) {
+				TitleTrie.Entry entry = toTitleEntry(movie);
+				if (entry != null) {
+					entries.add(entry);
+				}
+			}
+		} finally {
+			cursor.close();
 		}
+		titleIndex.rebuild(entries);
+		fuzzyTitleIndex.rebuild(entries);
+	}
 
-		// Create indexes
-		movies.createIndex(new BasicDBObject("title", "text"));
-		movies.createIndex(new BasicDBObject("rating", 1));
-		movies.createIndex(new BasicDBObject("votes", 1));
-		tweets.createIndex(new BasicDBObject("coordinates", "2dsphere"));
+	/**
+	 * Reload the tweet term index from the tweet buckets of the movies.
+	 */
+	public void rebuildTweetIndex() {
+		// No batch is written meanwhile, so every stored tweet is either
+		// scanned or reported to indexTweet afterwards, never both
+		tweetWriter.whilePaused(new Runnable() {
+			@Override
+			public void run() {
+				tweetTermIndex.clear();
+				DBObject projection = new BasicDBObject("movie", 1).append("tweets.text", 1);
+				DBCursor cursor = tweetBuckets.getCollection().find(new BasicDBObject(), projection).batchSize(100);
+				try {
+					for (DBObject bucket : cursor) {
+						Object title = bucket.get("movie");
+						Object embedded = bucket.get("tweets");
+						if (title == null || !(embedded instanceof List)) {
+							continue;
+						}
+						for (Object tweet : (List<?>) embedded) {
+							if (tweet instanceof DBObject) {
+								Object text = ((DBObject) tweet).get("text");
+								if (text != null) {
+									tweetTermIndex.add(title.toString(), text.toString());
+								}
+							}
+						}
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		});
+	}
+
+	private static TitleTrie.Entry toTitleEntry(DBObject movie) {
+		Object title = movie.get("title");
+		if (title == null) {
+			return null;
+		}
+		Object votes = movie.get("votes");
+		Object rating = movie.get("rating");
+		return new TitleTrie.Entry(movie.get("_id"), title.toString(),
+				votes instanceof Number ? ((Number) votes).intValue() : 0,
+				rating instanceof Number ? ((Number) rating).doubleValue() : 0);
+	}
+
+	/**
+	 * Create all indexes. They are built in the background, so the collections
+	 * stay available while building.
+	 */
+	public void createIndexes() {
+		BasicDBObject background = new BasicDBObject("background", true);
+		movies.createIndex(new BasicDBObject("title", "text"), background);
+		movies.createIndex(new BasicDBObject("title", 1), background);
+		movies.createIndex(new BasicDBObject("rating", 1), background);
+		movies.createIndex(new BasicDBObject("votes", 1), background);
+		tweets.createIndex(new BasicDBObject("coordinates", "2dsphere"), background);
+	}
+
+	/**
+	 * @return the live feed of geotagged tweets, published once they are stored
+	 */
+	public TweetFeed getTweetFeed() {
+		return tweetFeed;
+	}
+
+	/**
+	 * @return the write-behind stage of saveTweet
+	 */
+	public TweetWriter getTweetWriter() {
+		return tweetWriter;
+	}
+
+	/**
+	 * @return the state of the background start-up tasks
+	 */
+	public WarmUp getWarmUp() {
+		return warmUp;
 	}
 
 	/**
@@ -69,17 +251,19 @@ public class MovieService extends MovieServiceBase {
 	 * @return the matching DBObject
 	 */
 	public DBObject findMovieByTitle(String title) {
+		warmUp.require(MOVIE_DATA);
 		return movies.findOne(new BasicDBObject("title", title));
 	}
 
 	/**
-	 * Find all movies that have at least one tweet in their "tweets" array
-	 * which does have the "coordinates" attribute
+	 * Find all movies that have at least one tweet with the "coordinates"
+	 * attribute, as counted in their "geoTweetCount"
 	 * 
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor getViewableMovies() {
-		DBCursor results = movies.find(new BasicDBObject("tweets.coordinates", new BasicDBObject("$exists", true)));
+		warmUp.require(TWEET_BUCKETS);
+		DBCursor results = movies.find(new BasicDBObject("geoTweetCount", new BasicDBObject("$gt", 0)));
 		return results;
 	}
 
@@ -97,6 +281,7 @@ public class MovieService extends MovieServiceBase {
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor getBestMovies(int minVotes, double minRating, int limit) {
+		warmUp.require(MOVIE_DATA);
 		return movies.find(new BasicDBObject(ImmutableMap.of(
 						"votes", new BasicDBObject("$gte", minVotes),
 						"rating", new BasicDBObject("$gte", minRating)
@@ -114,15 +299,15 @@ public class MovieService extends MovieServiceBase {
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor getByGenre(String genreList, int limit) {
+		warmUp.require(MOVIE_DATA);
 		String[] genres = genreList.split(",");
 		return movies.find(new BasicDBObject("genre", new BasicDBObject("$all", genres))).limit(limit);
 	}
 
 	/**
 	 * Find movies by prefix, i.e. find movies whose "title" property begins
-	 * with the given prefix. Use a regular expression similar to the
-	 * {@link #suggest(String, int)} method. This method is used to display
-	 * search results while typing.
+	 * with the given prefix. This method is used to display search results
+	 * while typing.
 	 * 
 	 * @param titlePrefix
 	 *            the prefix entered by the user
@@ -131,43 +316,83 @@ public class MovieService extends MovieServiceBase {
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor searchByPrefix(String titlePrefix, int limit) {
+		warmUp.require(MOVIE_DATA);
 		Pattern prefixPattern = Pattern.compile("^" + titlePrefix, Pattern.CASE_INSENSITIVE);
 		DBObject prefixQuery = new BasicDBObject("title", prefixPattern);
 		return movies.find(prefixQuery).limit(limit);
 	}
 
 	/**
-	 * Suggest movies based on a title prefix. This is used for the search
-	 * typeahead feature. The suggestions rely on a regular expression of the
-	 * form:
-	 * 
-	 * <pre>
-	 * ^prefix.*
-	 * </pre>
-	 * 
-	 * Anchoring the prefix to the begin using "^" ensures the efficiency of the
-	 * query. Perform a projection to the property "title", so no unnecessary
-	 * data is transferred from MongoDB.
-	 * 
+	 * Suggest titles for the search typeahead from the in-memory title index:
+	 * movies with a word starting with the prefix, most voted first. An empty
+	 * prefix suggests the most voted movies.
+	 *
 	 * @param prefix
 	 * @param limit
+	 *            maximum number of titles to be returned
+	 * @return the matching titles
+	 */
+	public List<String> suggestTitles(String prefix, int limit) {
+		warmUp.require(TITLE_INDEX);
+		List<String> titles = new ArrayList<String>(limit);
+		for (TitleTrie.Entry entry : titleIndex.complete(prefix, limit)) {
+			titles.add(entry.getTitle());
+		}
+		return titles;
+	}
+
+	/**
+	 * Typo tolerant title search. Candidates come from the in-memory trigram
+	 * index, so misspelled titles are found without scanning the collection;
+	 * only the matches are fetched from MongoDB. Queries of one or two
+	 * characters are answered by the typeahead index instead.
+	 *
+	 * @param query
+	 *            the (possibly misspelled) title, none matches nothing
+	 * @param limit
 	 *            maximum number of records to be returned
-	 * @return the DBCursor for the query
+	 * @return the matching movies, closest and most voted first
 	 */
-	public DBCursor suggest(String prefix, int limit) {
-		DBObject query = new BasicDBObject("title", Pattern.compile(prefix, Pattern.CASE_INSENSITIVE));
-		DBObject projection = new BasicDBObject("title", true);
-		return movies.find(query, projection).limit(limit);
+	public List<DBObject> searchFuzzy(String query, int limit) {
+		warmUp.require(TITLE_INDEX);
+		if (query == null) {
+			return new ArrayList<DBObject>();
+		}
+		List<Object> ids = new ArrayList<Object>(limit);
+		if (TrigramIndex.isTooShort(query)) {
+			// Too short to tell a typo from another title
+			for (TitleTrie.Entry entry : titleIndex.complete(query, limit)) {
+				ids.add(entry.getId());
+			}
+		} else {
+			for (TrigramIndex.Match match : fuzzyTitleIndex.search(query, limit)) {
+				ids.add(match.getEntry().getId());
+			}
+		}
+		Map<Object, DBObject> byId = new HashMap<Object, DBObject>();
+		for (DBObject movie : movies.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)))) {
+			byId.put(movie.get("_id"), movie);
+		}
+		// Keep the ranking of the index
+		List<DBObject> results = new ArrayList<DBObject>(ids.size());
+		for (Object id : ids) {
+			DBObject movie = byId.get(id);
+			if (movie != null) {
+				results.add(movie);
+			}
+		}
+		return results;
 	}
 
 	/**
-	 * Find all movies that have a "tweets" attribute, i.e. that were at least
-	 * once subject of a tweet.
+	 * Find all movies that have a "tweetCount", i.e. that were at least once
+	 * subject of a tweet.
 	 * 
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor getTweetedMovies() {
-		DBObject query = new BasicDBObject("tweets", new BasicDBObject("$exists", true));
+		warmUp.require(TWEET_BUCKETS);
+		DBObject query = new BasicDBObject("tweetCount", new BasicDBObject("$gt", 0));
 		return movies.find(query);
 	}
 
@@ -199,6 +424,58 @@ public class MovieService extends MovieServiceBase {
 		return tweets.find(query).limit(limit);
 	}
 
+	/**
+	 * Aggregate the geotagged tweets inside a viewport of the map into
+	 * clusters, see {@link TweetClusters}.
+	 * 
+	 * @param zoom
+	 *            the zoom level of the map
+	 * @return one document per cluster with "count", "lat", "lng", the most
+	 *         tweeted "movie" and its "movieCount"
+	 */
+	public List<DBObject> getTweetClusters(double west, double south, double east, double north, int zoom) {
+		warmUp.require(TWEET_CLUSTERS);
+		List<DBObject> result = new ArrayList<DBObject>();
+		for (TweetClusters.Cluster cluster : tweetClusters.query(west, south, east, north, zoom)) {
+			result.add(new BasicDBObject("tile", cluster.getTile()).append("count", cluster.getCount())
+					.append("lat", cluster.getLat()).append("lng", cluster.getLng())
+					.append("movie", cluster.getMovie()).append("movieCount", cluster.getMovieCount()));
+		}
+		return result;
+	}
+
+	/**
+	 * Reload the map clusters from the geotagged tweets. Only "coordinates"
+	 * and "movie" are transferred.
+	 */
+	public void rebuildTweetClusters() {
+		// No batch is written meanwhile, so every stored tweet is either
+		// scanned or reported to indexTweet afterwards, never both
+		tweetWriter.whilePaused(new Runnable() {
+			@Override
+			public void run() {
+				tweetClusters.clear();
+				DBObject query = new BasicDBObject("coordinates", new BasicDBObject("$exists", true));
+				DBObject projection = new BasicDBObject("coordinates.coordinates", 1).append("movie", 1);
+				DBCursor cursor = tweets.find(query, projection).batchSize(5000);
+				try {
+					for (DBObject tweet : cursor) {
+						// GeoJSON order: longitude, latitude
+						List<?> point = geoJsonPoint(tweet);
+						if (point == null) {
+							continue;
+						}
+						Object movie = tweet.get("movie");
+						tweetClusters.add(((Number) point.get(1)).doubleValue(), ((Number) point.get(0)).doubleValue(),
+								movie == null ? null : movie.toString());
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Find all tweets that are geotagged, i.e. that have a "coordinates"
 	 * attribute. Make sure that the "coordinates" attribute is indexed, so that
@@ -218,10 +495,30 @@ public class MovieService extends MovieServiceBase {
 		return results;
 	}
 
+	/**
+	 * Find the geotagged tweets newer than a known one, with the projection of
+	 * {@link #getTaggedTweets()}. Clients pass the _id of the newest tweet they
+	 * have, so only new tweets are transferred.
+	 * 
+	 * @param since
+	 *            the _id of the newest tweet known to the client
+	 * @param limit
+	 *            maximum number of records to be returned
+	 * @return the DBCursor for the query, oldest first
+	 */
+	public DBCursor getTaggedTweetsSince(ObjectId since, int limit) {
+		DBObject projection = new BasicDBObject("text", 1).append("movie", 1).append("user.name", 1).append("coordinates", 1);
+		DBObject query = new BasicDBObject("_id", new BasicDBObject("$gt", since)).append("coordinates",
+				new BasicDBObject("$exists", true));
+		return tweets.find(query, projection).sort(new BasicDBObject("_id", 1)).limit(limit);
+	}
+
 	/**query
-	 * Save a tweet emitted by the Twitter Stream. The tweet has to be saved
-	 * twice: 1) in the movie document that has a title that matches the keyword
-	 * using the "tweets" list of each movie. 2) in the separate tweets
+	 * Save a tweet emitted by the Twitter Stream. The writes are done in
+	 * batches by the {@link TweetWriter}, so the stream never waits for
+	 * MongoDB. The tweet has to be saved
+	 * twice: 1) in the tweet buckets of the movie that has a title that
+	 * matches the keyword (see {@link TweetBuckets}). 2) in the separate tweets
 	 * collection which stores the JSON tweets, as outputted by the Twitter REST
 	 * API.<br>
 	 * Add the matching movie to the tweets in the tweet collection by adding a
@@ -233,19 +530,32 @@ public class MovieService extends MovieServiceBase {
 	 *            the name of the movie the tweet corresponds to
 	 * @param status
 	 *            the tweet
+	 * @throws NotReadyException
+	 *             while the movie data is seeded, which clears the tweets
 	 */
 	public void saveTweet(String movie, Status status) {
+		saveTweet(movie, status, null);
+	}
+
+	/**
+	 * Save a tweet whose raw JSON is not known to twitter4j, e.g. one replayed
+	 * from a file (see {@link #saveTweet(String, Status)}).
+	 * 
+	 * @param rawJson
+	 *            the JSON the tweet was created from, or null to look it up
+	 *            in twitter4j's JSON store
+	 */
+	public void saveTweet(String movie, Status status, String rawJson) {
+		warmUp.require(MOVIE_DATA);
 		// Extract information from tweet
 		String user = status.getUser().getName();
 		String text = status.getText();
 		Date date = status.getCreatedAt();
 		boolean retweet = status.isRetweet();
 
-		// Output the Tweet
-		System.out.format("%-20s %-20s %-140s%n", movie, user, text.replace("\n", " "));
-
 		// Get raw JSON Tweet
-		String rawJson = DataObjectFactory.getRawJSON(status);
+		if (rawJson == null)
+			rawJson = DataObjectFactory.getRawJSON(status);
 		DBObject rawTweet = (DBObject) JSON.parse(rawJson);
 		rawTweet.put("movie", movie);
 		if (status.getGeoLocation() == null)
@@ -268,11 +578,48 @@ public class MovieService extends MovieServiceBase {
 			tweet.append("coordinates", new Double[] { lat, lng });
 		}
 
-		// Insert Raw Tweet
-		tweets.insert(rawTweet);
-		// Find matching Movie(s) and append Tweet
-		movies.update(new BasicDBObject("title", movie),
-				new BasicDBObject("$push", new BasicDBObject("tweets", tweet)), false, true);
+		// Insert Raw Tweet and append it to the matching Movie(s) in the
+		// background. The _id is assigned here, so the search index can refer
+		// to it once the tweet is written and a retried write can tell which
+		// tweets already went through.
+		ObjectId id = new ObjectId();
+		rawTweet.put("_id", id);
+		tweet.append("_id", id);
+		tweetWriter.write(movie, rawTweet, tweet);
+	}
+
+	/**
+	 * Add a tweet stored by the {@link TweetWriter} to the in-memory indexes,
+	 * the map clusters and the live feed. Tweets the writer dropped or failed
+	 * to store never get here, so nothing refers to a tweet missing in MongoDB.
+	 */
+	private void indexTweet(String movie, DBObject raw, DBObject embedded) {
+		Object text = embedded.get("text");
+		if (text != null) {
+			tweetSearchIndex.add(raw.get("_id"), text.toString());
+			tweetTermIndex.add(movie, text.toString());
+		}
+		List<?> point = geoJsonPoint(raw);
+		if (point != null) {
+			tweetClusters.add(((Number) point.get(1)).doubleValue(), ((Number) point.get(0)).doubleValue(), movie);
+			// Same projection as getTaggedTweets()
+			tweetFeed.publish(new BasicDBObject("_id", raw.get("_id")).append("text", text).append("movie", movie)
+					.append("user", new BasicDBObject("name", embedded.get("user")))
+					.append("coordinates", raw.get("coordinates")));
+		}
+	}
+
+	/**
+	 * @return longitude and latitude of a raw tweet, in GeoJSON order, or null
+	 *         if it is not geotagged
+	 */
+	private static List<?> geoJsonPoint(DBObject tweet) {
+		Object geometry = tweet.get("coordinates");
+		Object coordinates = geometry instanceof DBObject ? ((DBObject) geometry).get("coordinates") : null;
+		if (!(coordinates instanceof List) || ((List<?>) coordinates).size() < 2) {
+			return null;
+		}
+		return (List<?>) coordinates;
 	}
 
 	/**
@@ -290,8 +637,8 @@ public class MovieService extends MovieServiceBase {
 	 * <b>Remember</b>: This is an example of a powerful query that should not
 	 * be done in practice. Wildcard regular expression queries always have to
 	 * scan the full index which is very costly. A full text search is far more
-	 * efficient (see {@link #searchTweets(String)} for an example) and would be
-	 * preferred in practice.
+	 * efficient (see {@link #searchTweets(String, int, int)} for an example)
+	 * and would be preferred in practice.
 	 * 
 	 * @param keyword
 	 *            the keyword to search
@@ -300,52 +647,97 @@ public class MovieService extends MovieServiceBase {
 	 * @return the DBCursor for the query
 	 */
 	public DBCursor getByTweetsKeywordRegex(String keyword, int limit) {
+		warmUp.require(TWEET_BUCKETS);
 		Pattern keywordPattern = Pattern.compile(".*" + keyword + ".*", Pattern.CASE_INSENSITIVE);
 		//DBObject keywordQuery = new BasicDBObject("text", keywordPattern);
 		//DBCursor result = tweets.find(keywordQuery).limit(limit);
-		DBObject query = new BasicDBObject("tweets.text", keywordPattern);
-		DBCursor result = movies.find(query).limit(limit);
-		System.out.println(result.count());
-		return result;
+		// The tweets live in the buckets, the movies are looked up by title
+		List<?> titles = tweetBuckets.getCollection().distinct("movie",
+				new BasicDBObject("tweets.text", keywordPattern));
+		DBObject query = new BasicDBObject("title", new BasicDBObject("$in", titles));
+		return movies.find(query).limit(limit);
 	}
 
 	/**
-	 * Does Full Text Search (FTS) on Tweets. Docs about MongoDB FTS:
-	 * http://docs.mongodb.org/manual/core/text-search/#text-search-text-command<br>
+	 * Find all movies with tweets containing every word of the keyword, using
+	 * the in-memory tweet term index instead of a regular expression scan.
 	 * 
-	 * FTS search is powerful new feature of MongoDB. It allow Queries similar
-	 * to those performed in Google, including negation, Stemming, Stop Words
-	 * and Wildcards. To Do FTS first ensure an index of type "text" on the
-	 * tweet property "text". The actual search is a query of this form:
-	 * 
-	 * <pre>
-	 * {
-	 * 	"text" : *mytextcollection*,
-	 *  "search" : *search query*
-	 * }
-	 * </pre>
+	 * @param keyword
+	 *            one or more words to search
+	 * @param limit
+	 *            maximum number of records to be returned
+	 * @return the matching movies
+	 */
+	public DBCursor getByTweetsKeyword(String keyword, int limit) {
+		warmUp.require(TWEET_INDEX);
+		List<String> titles = tweetTermIndex.find(keyword, limit);
+		return movies.find(new BasicDBObject("title", new BasicDBObject("$in", titles))).limit(limit);
+	}
+
+	/**
+	 * Full Text Search (FTS) on Tweets, answered by the in-process BM25 index
+	 * (see {@link TweetSearchIndex}). Words are alternatives, "quoted phrases"
+	 * are required and a leading "-" excludes a word or phrase. Only the page
+	 * of hits is fetched from MongoDB, projected to the fields the client
+	 * shows.
 	 * 
 	 * @param query
 	 *            the search query
-	 * @return a List of Objects returned by the FTS query
-	 */
-	public List<DBObject> searchTweets(String query) {
-		// Create a text index on the "text" property of tweets
-		tweets.ensureIndex(new BasicDBObject("text", "text").append("user.name", "text"));
-
-		DBObject search = new BasicDBObject();
-		search.put("text", "tweets");
-		search.put("search", query);
-		CommandResult commandResult = db.command(search);
-		BasicDBList results = (BasicDBList) commandResult.get("results");
-		List<DBObject> found = new LinkedList<DBObject>();
-		for (Object o : results) {
-			DBObject dbo = (DBObject) ((DBObject) o).get("obj");
-			found.add(dbo);
+	 * @param offset
+	 *            number of best hits to skip
+	 * @param limit
+	 *            maximum number of records to be returned
+	 * @return the tweets of the requested page, best first, with their "score"
+	 */
+	public List<DBObject> searchTweets(String query, int offset, int limit) {
+		warmUp.require(TWEET_SEARCH);
+		List<TweetSearchIndex.Hit> hits = tweetSearchIndex.search(query, offset, limit);
+		List<Object> ids = new ArrayList<Object>(hits.size());
+		for (TweetSearchIndex.Hit hit : hits) {
+			ids.add(hit.getId());
+		}
+		DBObject projection = new BasicDBObject("text", 1).append("movie", 1).append("user.name", 1)
+				.append("user.screen_name", 1).append("created_at", 1).append("coordinates", 1);
+		Map<Object, DBObject> byId = new HashMap<Object, DBObject>();
+		for (DBObject tweet : tweets.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)), projection)) {
+			byId.put(tweet.get("_id"), tweet);
+		}
+		List<DBObject> found = new ArrayList<DBObject>(hits.size());
+		for (TweetSearchIndex.Hit hit : hits) {
+			DBObject tweet = byId.get(hit.getId());
+			if (tweet != null) {
+				tweet.put("score", hit.getScore());
+				found.add(tweet);
+			}
 		}
 		return found;
 	}
 
+	/**
+	 * Reload the full text index from the tweets collection.
+	 */
+	public void rebuildTweetSearch() {
+		// No batch is written meanwhile, so every stored tweet is either
+		// scanned or reported to indexTweet afterwards, never both
+		tweetWriter.whilePaused(new Runnable() {
+			@Override
+			public void run() {
+				tweetSearchIndex.clear();
+				DBCursor cursor = tweets.find(new BasicDBObject(), new BasicDBObject("text", 1)).batchSize(5000);
+				try {
+					for (DBObject tweet : cursor) {
+						Object text = tweet.get("text");
+						if (text != null) {
+							tweetSearchIndex.add(tweet.get("_id"), text.toString());
+						}
+					}
+				} finally {
+					cursor.close();
+				}
+			}
+		});
+	}
+
 	/**
 	 * Find the newest tweets, with respect to their insertion order. To achieve
 	 * this, order the results by their "_id" attribute, descending (-1).
@@ -357,9 +749,7 @@ public class MovieService extends MovieServiceBase {
 	public DBCursor getNewestTweets(int limit) {
 		BasicDBObject query = new BasicDBObject("_id", new BasicDBObject("$exists", true));
 		BasicDBObject sort = new BasicDBObject("_id", -1); 
-		DBCursor result = tweets.find(query).sort(sort).limit(limit > 0 ? limit : 0);
-		System.out.println(result.count());
-		return result;
+		return tweets.find(query).sort(sort).limit(limit > 0 ? limit : 0);
 	}
 
 	/**
@@ -390,6 +780,8 @@ public class MovieService extends MovieServiceBase {
 	 * @return
 	 */
 	public DBCursor getTweetsNear(double lat, double lng, int radiusKm) {
+		// $near needs the 2dsphere index
+		warmUp.require(INDEXES);
 		DBObject pointQuery = new BasicDBObject("coordinates", new BasicDBObject("$near",
 				new BasicDBObject("$geometry", new BasicDBObject("type", "Point").append("coordinates", new Double[] {
 						lng, lat })).append("$maxDistance", radiusKm * 1000)));
@@ -410,6 +802,7 @@ public class MovieService extends MovieServiceBase {
 		file.setContentType("image/png");
 		file.setFilename("sample.png");
 		file.save();
+		imageCache.invalidate("sample.png");
 	}
 
 	/**
@@ -421,10 +814,46 @@ public class MovieService extends MovieServiceBase {
 	 * @return The retrieved GridFS File
 	 */
 	public GridFSDBFile getFile(String filename) {
-		System.out.println();
 		return fs.findOne(filename);
 	}
 
+	/**
+	 * Retrieves an image from GridFS through the in-memory
+	 * {@link ImageCache}.
+	 * 
+	 * @param filename
+	 *            the name of the file
+	 * @return the image, or null if there is no file with that name
+	 */
+	public ImageCache.Image getImage(String filename) {
+		return imageCache.get(filename);
+	}
+
+	/**
+	 * Retrieves a smaller variant of an image, see {@link ImageVariants}. If
+	 * the variant was not generated yet, the original is returned and the
+	 * variant is generated in the background.
+	 * 
+	 * @param filename
+	 *            the name of the original file
+	 * @param size
+	 *            the variant, or null for the original
+	 * @return the image, or null if there is no file with that name
+	 */
+	public ImageCache.Image getImage(String filename, ImageVariants.Size size) {
+		if (size != null) {
+			ImageCache.Image variant = imageCache.get(ImageVariants.variantName(filename, size));
+			if (variant != null) {
+				return variant;
+			}
+		}
+		ImageCache.Image original = imageCache.get(filename);
+		if (size != null && original != null) {
+			imageVariants.generate(filename);
+		}
+		return original;
+	}
+
 	/**
 	 * Saves a file to GridFS. The file has the given name and is files using
 	 * the provided InputStream. The given Content-Type has to be set on the
@@ -440,10 +869,13 @@ public class MovieService extends MovieServiceBase {
 	public void saveFile(String filename, InputStream inputStream, String contentType) {
 		// Remove old versions.
 		fs.remove(filename);
+		imageVariants.remove(filename);
 		// Creating the file.
 		GridFSInputFile gFile = fs.createFile(inputStream, filename);
 		gFile.setContentType(contentType);
 		gFile.save();
+		imageCache.invalidate(filename);
+		imageVariants.regenerate(filename);
 	}
 
 	// Given Helper Functions:
@@ -482,11 +914,12 @@ public class MovieService extends MovieServiceBase {
 	}
 
 	/**
-	 * Delete all documents from both the tweets and the movie collection
+	 * Delete all documents from the tweets, tweet bucket and movie collection
 	 */
 	public void clearDatabase() {
 		movies.remove(new BasicDBObject());
 		tweets.remove(new BasicDBObject());
+		tweetBuckets.getCollection().remove(new BasicDBObject());
 	}
 
 	/**
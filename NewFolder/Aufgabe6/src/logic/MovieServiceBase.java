@@ -29,13 +29,12 @@ public class MovieServiceBase {
 	}
 
 	public static String[] extract(DBCursor cursor, String fieldName) {
-		String[] result = new String[cursor.size()];
-		int pos = 0;
+		// Collect while iterating, cursor.size() would cost an extra count
+		List<String> result = new ArrayList<String>();
 		for (DBObject obj : cursor) {
-			result[pos] = obj.get(fieldName).toString();
-			pos++;
+			result.add(obj.get(fieldName).toString());
 		}
-		return result;
+		return result.toArray(new String[result.size()]);
 	}
 
 	public List<DBObject> loadMovies(String fileName) {
@@ -62,75 +61,113 @@ public class MovieServiceBase {
 		return results;
 	}
 	
+	/**
+	 * Parses documents written one per line by mongoexport.
+	 */
+	public static final BulkLoader.LineParser JSON_LINES = new BulkLoader.LineParser() {
+		@Override
+		public DBObject parse(String line) {
+			return (DBObject) JSON.parse(line);
+		}
+	};
+
+	/**
+	 * Parses the lines of the full IMDB TSV variant (imdb_megaNice-full.csv).
+	 * Movies with too few votes are skipped.
+	 */
+	public static final BulkLoader.LineParser MEGA_NICE_TSV = new BulkLoader.LineParser() {
+		@Override
+		public DBObject parse(String line) {
+			BasicDBObject dbo = parseMegaNice(line);
+			return keepMegaNice(dbo) ? dbo : null;
+		}
+	};
+
+	private static final String[] MEGA_NICE_FIELDS = new String[] { "_id", "title", "year", "rating", "votes",
+			"runtime", "genre", "actors", "releases", "plot", "movie" };
+
+	private static final ThreadLocal<SimpleDateFormat> RELEASE_DATE_FORMAT = new ThreadLocal<SimpleDateFormat>() {
+		@Override
+		protected SimpleDateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd");
+		}
+	};
+
 	public static void loadJSON(String fileName, DBCollection col) {
-		Scanner scanner = new Scanner(MovieService.class.getResourceAsStream(fileName));
-        while (scanner.hasNextLine()) {
-        	String line = scanner.nextLine();
-        	col.insert((DBObject) JSON.parse(line));
-        }
-        scanner.close();
+		new BulkLoader(col).load(MovieService.class.getResourceAsStream(fileName), JSON_LINES);
 	}
-	
+
+	/**
+	 * Bulk loads the full IMDB TSV variant straight into the collection.
+	 */
+	public static long loadMovies_megaNice(String fileName, DBCollection col) {
+		return new BulkLoader(col).load(MovieService.class.getResourceAsStream(fileName), MEGA_NICE_TSV);
+	}
+
 	public static List<DBObject> loadMovies_megaNice(String fileName) {
-        String[] names = new String[] { "_id", "title", "year", "rating",
-                "votes", "runtime", "genre", "actors", "releases", "plot",
-                "movie" };
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-        List<DBObject> results = new ArrayList<DBObject>(100000);
-        Scanner scanner = new Scanner(MovieService.class.getResourceAsStream(fileName));
-
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            BasicDBObject dbo = new BasicDBObject();
-            String[] fields = line.split("\t");
-            for (int i = 0; i < fields.length - 1; i++) {
-                if (fields[i] == null || fields[i].length() == 0) {
-                    dbo.append(names[i], "");
-                } else if (i == 3) {// rating
-                    dbo.append(names[i], Double.valueOf(fields[i]));
-                } else if (i == 4) {// votes
-                    dbo.append(names[i], Integer.valueOf(fields[i]));
-                } else if (i == 5) {// runtime
-                    dbo.append(names[i], fields[i]);
-                } else if (i == 6) {// genre
-                    dbo.append(names[i], fields[i].split(Pattern.quote("|")));
-                } else if (i == 7) {// actors
-                    dbo.append(names[i], fields[i].split(Pattern.quote("|")));
-                } else if (i == 8) {// releases
-                    List<BasicDBObject> releases = new LinkedList<BasicDBObject>();
-                    for(String release : fields[i].split(Pattern.quote("|"))) {
-                    	String[] parts = release.split(":");
-                    	if(parts.length > 1) {
+		List<DBObject> results = new ArrayList<DBObject>(100000);
+		Scanner scanner = new Scanner(MovieService.class.getResourceAsStream(fileName));
+
+		while (scanner.hasNextLine()) {
+			BasicDBObject dbo = parseMegaNice(scanner.nextLine());
+			if (keepMegaNice(dbo)) {
+				results.add(dbo);
+			}
+		}
+		scanner.close();
+		return results;
+	}
+
+	//Limit the amount of Movies by dropping those with < 10 Votes
+	private static boolean keepMegaNice(BasicDBObject dbo) {
+		return dbo.get("votes") != null && !dbo.get("votes").equals("") && dbo.getInt("votes") > 5;
+	}
+
+	private static BasicDBObject parseMegaNice(String line) {
+        String[] names = MEGA_NICE_FIELDS;
+        SimpleDateFormat dateFormat = RELEASE_DATE_FORMAT.get();
+        BasicDBObject dbo = new BasicDBObject();
+        String[] fields = line.split("\t");
+        for (int i = 0; i < fields.length - 1; i++) {
+            if (fields[i] == null || fields[i].length() == 0) {
+                dbo.append(names[i], "");
+            } else if (i == 3) {// rating
+                dbo.append(names[i], Double.valueOf(fields[i]));
+            } else if (i == 4) {// votes
+                dbo.append(names[i], Integer.valueOf(fields[i]));
+            } else if (i == 5) {// runtime
+                dbo.append(names[i], fields[i]);
+            } else if (i == 6) {// genre
+                dbo.append(names[i], fields[i].split(Pattern.quote("|")));
+            } else if (i == 7) {// actors
+                dbo.append(names[i], fields[i].split(Pattern.quote("|")));
+            } else if (i == 8) {// releases
+                List<BasicDBObject> releases = new LinkedList<BasicDBObject>();
+                for(String release : fields[i].split(Pattern.quote("|"))) {
+                	String[] parts = release.split(":");
+                	if(parts.length > 1) {
 	                    	try {
 	                    		releases.add(new BasicDBObject("country", parts[0]).append("date", dateFormat.parse(parts[1])));
 							} catch (ParseException e) {
 								releases.add(new BasicDBObject("country", parts[0]).append("date", parts[1]));
 							}
-                    	} else {
-                    		releases.add(new BasicDBObject("date", parts[0]));
-                    	}
-                    }
-                    dbo.append(names[i], releases);
-                } else if (i == 9) {// plots
-                    dbo.append(names[i], fields[i].replaceAll("       ", "\t")
-                            .replaceAll("        ", "\n"));
-                } else if (i == 10) {// movie
-                    dbo.append(names[i], Boolean.parseBoolean(fields[i]));
-                } else {
-                    dbo.append(names[i], fields[i]);
+                	} else {
+                		releases.add(new BasicDBObject("date", parts[0]));
+                	}
                 }
-            }
-            dbo.append(names[fields.length - 1],
-                    fields[fields.length - 1].split(","));
-            //Limit the amount of Movies by dropping those with < 10 Votes
-            if( dbo.get("votes")!= null && !dbo.get("votes").equals("") && dbo.getInt("votes") > 5 ) {
-            	results.add(dbo);
+                dbo.append(names[i], releases);
+            } else if (i == 9) {// plots
+                dbo.append(names[i], fields[i].replaceAll("       ", "\t")
+                        .replaceAll("        ", "\n"));
+            } else if (i == 10) {// movie
+                dbo.append(names[i], Boolean.parseBoolean(fields[i]));
             } else {
-            	//results.add(dbo);
+                dbo.append(names[i], fields[i]);
             }
         }
-        scanner.close();
-        return results;
+        dbo.append(names[fields.length - 1],
+                fields[fields.length - 1].split(","));
+        return dbo;
     }
 	
 
@@ -0,0 +1,24 @@
+package logic;
+
+/**
+ * Thrown when a request needs data that is still being loaded or indexed in
+ * the background.
+ */
+public class NotReadyException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String task;
+
+	public NotReadyException(String task) {
+		super("Not ready yet: " + task);
+		this.task = task;
+	}
+
+	/**
+	 * @return the name of the warm-up task the request is waiting for
+	 */
+	public String getTask() {
+		return task;
+	}
+}
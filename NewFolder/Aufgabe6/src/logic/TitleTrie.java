@@ -0,0 +1,240 @@
+package logic;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory prefix index over movie titles for the search typeahead. Every
+ * word start of a normalized title (lower case, no diacritics, punctuation
+ * collapsed to single spaces) is inserted, so "wars" completes
+ * "Star Wars". Each node keeps the best {@value #TOP_K} titles below it,
+ * ranked by votes and rating, so a lookup only walks the prefix and copies
+ * that list.
+ *
+ * Nodes are only created for the first {@value #MAX_DEPTH} characters of a
+ * suffix; longer queries are answered by filtering the candidates of the
+ * deepest node.
+ *
+ * The index is only replaced as a whole by {@link #rebuild(List)}; the movies
+ * are not changed at runtime.
+ */
+public class TitleTrie {
+
+	public static final int TOP_K = 16;
+	private static final int MAX_DEPTH = 24;
+
+	private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+	private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	private static final char[] NO_KEYS = new char[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+	private static final Entry[] NO_ENTRIES = new Entry[0];
+
+	/**
+	 * Highest votes first, then highest rating, then alphabetically.
+	 */
+	private static final Comparator<Entry> RANKING = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			if (a.votes != b.votes) {
+				return a.votes > b.votes ? -1 : 1;
+			}
+			int byRating = Double.compare(b.rating, a.rating);
+			return byRating != 0 ? byRating : a.title.compareTo(b.title);
+		}
+	};
+
+	/**
+	 * A movie as known to the index.
+	 */
+	public static class Entry {
+		final Object id;
+		final String title;
+		final String normalized;
+		final int votes;
+		final double rating;
+
+		public Entry(Object id, String title, int votes, double rating) {
+			this.id = id;
+			this.title = title;
+			this.normalized = normalize(title);
+			this.votes = votes;
+			this.rating = rating;
+		}
+
+		public Object getId() {
+			return id;
+		}
+
+		public String getTitle() {
+			return title;
+		}
+	}
+
+	private static class Node {
+		char[] keys = NO_KEYS;
+		Node[] children = NO_CHILDREN;
+		Entry[] top = NO_ENTRIES;
+
+		Node child(char c) {
+			int pos = Arrays.binarySearch(keys, c);
+			return pos >= 0 ? children[pos] : null;
+		}
+
+		Node getOrCreate(char c) {
+			int pos = Arrays.binarySearch(keys, c);
+			if (pos >= 0) {
+				return children[pos];
+			}
+			pos = -pos - 1;
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, pos);
+			System.arraycopy(children, 0, newChildren, 0, pos);
+			System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+			System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+			Node node = new Node();
+			newKeys[pos] = c;
+			newChildren[pos] = node;
+			keys = newKeys;
+			children = newChildren;
+			return node;
+		}
+
+		void offer(Entry entry) {
+			for (Entry e : top) {
+				if (e == entry) {
+					return;
+				}
+			}
+			if (top.length == TOP_K && RANKING.compare(entry, top[TOP_K - 1]) >= 0) {
+				return;
+			}
+			int pos = 0;
+			while (pos < top.length && RANKING.compare(top[pos], entry) <= 0) {
+				pos++;
+			}
+			int size = Math.min(top.length + 1, TOP_K);
+			Entry[] newTop = new Entry[size];
+			System.arraycopy(top, 0, newTop, 0, pos);
+			newTop[pos] = entry;
+			System.arraycopy(top, pos, newTop, pos + 1, size - pos - 1);
+			top = newTop;
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+	private Node root = new Node();
+
+	/**
+	 * Lower case, strip diacritics and collapse everything but letters and
+	 * digits to single spaces.
+	 */
+	public static String normalize(String text) {
+		String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+		String plain = DIACRITICS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+		return NON_ALPHANUMERIC.matcher(plain).replaceAll(" ").trim();
+	}
+
+	/**
+	 * Replaces the whole index.
+	 */
+	public void rebuild(List<Entry> all) {
+		Node newRoot = new Node();
+		Map<Object, Entry> newEntries = new HashMap<Object, Entry>(all.size() * 2);
+		// Insert best first, so most offers are rejected without copying
+		List<Entry> sorted = new ArrayList<Entry>(all);
+		Collections.sort(sorted, RANKING);
+		for (Entry entry : sorted) {
+			newEntries.put(entry.id, entry);
+			insert(newRoot, entry);
+		}
+		lock.writeLock().lock();
+		try {
+			root = newRoot;
+			entries.clear();
+			entries.putAll(newEntries);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return up to limit titles with a word starting with prefix, best first
+	 */
+	public List<Entry> complete(String prefix, int limit) {
+		String query = normalize(prefix);
+		List<Entry> result = new ArrayList<Entry>(Math.min(limit, TOP_K));
+		lock.readLock().lock();
+		try {
+			Node node = root;
+			int depth = Math.min(query.length(), MAX_DEPTH);
+			for (int i = 0; i < depth && node != null; i++) {
+				node = node.child(query.charAt(i));
+			}
+			if (node == null) {
+				return result;
+			}
+			boolean filter = query.length() > MAX_DEPTH;
+			for (Entry entry : node.top) {
+				if (result.size() == limit) {
+					break;
+				}
+				if (!filter || startsWord(entry.normalized, query)) {
+					result.add(entry);
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static boolean startsWord(String text, String query) {
+		int pos = text.indexOf(query);
+		while (pos >= 0) {
+			if (pos == 0 || text.charAt(pos - 1) == ' ') {
+				return true;
+			}
+			pos = text.indexOf(query, pos + 1);
+		}
+		return false;
+	}
+
+	private static void insert(Node root, Entry entry) {
+		// The empty prefix
+		root.offer(entry);
+		String text = entry.normalized;
+		for (int start = 0; start < text.length(); start++) {
+			if (start > 0 && text.charAt(start - 1) != ' ') {
+				continue;
+			}
+			Node node = root;
+			int end = Math.min(text.length(), start + MAX_DEPTH);
+			for (int i = start; i < end; i++) {
+				node = node.getOrCreate(text.charAt(i));
+				node.offer(entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into the terms used by the in-memory text indexes: normalized
+ * like titles (see {@link TitleTrie#normalize(String)}) and split at the
+ * remaining spaces.
+ */
+public class Tokenizer {
+
+	private Tokenizer() {
+	}
+
+	/**
+	 * @return the terms of the text in order, duplicates included
+	 */
+	public static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null) {
+			return tokens;
+		}
+		String normalized = TitleTrie.normalize(text);
+		int start = 0;
+		for (int i = 0; i <= normalized.length(); i++) {
+			if (i == normalized.length() || normalized.charAt(i) == ' ') {
+				if (i > start) {
+					tokens.add(normalized.substring(start, i));
+				}
+				start = i + 1;
+			}
+		}
+		return tokens;
+	}
+}
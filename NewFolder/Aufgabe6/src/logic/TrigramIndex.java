@@ -0,0 +1,248 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Typo tolerant title search. Normalized titles are split into character
+ * trigrams (padded, so word starts count as well) and stored in an inverted
+ * index. A query only looks at titles sharing enough trigrams with it; those
+ * candidates are verified with an edit distance bounded by the query length and
+ * ranked by distance, then by votes.
+ *
+ * The distance is measured against the best matching prefix of the title or
+ * of any of its word starts, so an incomplete, misspelled title still finds
+ * the movie. Queries of less than three characters are left to the prefix
+ * search of {@link TitleTrie}.
+ */
+public class TrigramIndex {
+
+	/**
+	 * A verified match.
+	 */
+	public static class Match {
+		final TitleTrie.Entry entry;
+		final int distance;
+
+		Match(TitleTrie.Entry entry, int distance) {
+			this.entry = entry;
+			this.distance = distance;
+		}
+
+		public TitleTrie.Entry getEntry() {
+			return entry;
+		}
+
+		public int getDistance() {
+			return distance;
+		}
+	}
+
+	private static final Comparator<Match> RANKING = new Comparator<Match>() {
+		@Override
+		public int compare(Match a, Match b) {
+			if (a.distance != b.distance) {
+				return a.distance - b.distance;
+			}
+			if (a.entry.votes != b.entry.votes) {
+				return a.entry.votes > b.entry.votes ? -1 : 1;
+			}
+			return Double.compare(b.entry.rating, a.entry.rating);
+		}
+	};
+
+	/**
+	 * Growable list of slot numbers.
+	 */
+	private static class Postings {
+		int[] slots = new int[4];
+		int size;
+
+		void add(int slot) {
+			if (size == slots.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(slots, 0, grown, 0, size);
+				slots = grown;
+			}
+			slots[size++] = slot;
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private List<TitleTrie.Entry> slots = new ArrayList<TitleTrie.Entry>();
+	private Map<String, Postings> postings = new HashMap<String, Postings>();
+
+	/**
+	 * Replaces the whole index, the only way to change it.
+	 */
+	public void rebuild(List<TitleTrie.Entry> all) {
+		List<TitleTrie.Entry> newSlots = new ArrayList<TitleTrie.Entry>(all.size());
+		Map<String, Postings> newPostings = new HashMap<String, Postings>();
+		for (TitleTrie.Entry entry : all) {
+			add(entry, newSlots, newPostings);
+		}
+		lock.writeLock().lock();
+		try {
+			slots = newSlots;
+			postings = newPostings;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private static void add(TitleTrie.Entry entry, List<TitleTrie.Entry> slots, Map<String, Postings> postings) {
+		int slot = slots.size();
+		slots.add(entry);
+		for (String gram : trigrams(entry.normalized)) {
+			Postings list = postings.get(gram);
+			if (list == null) {
+				list = new Postings();
+				postings.put(gram, list);
+			}
+			list.add(slot);
+		}
+	}
+
+	/**
+	 * Distinct trigrams of a normalized text, padded with two leading and one
+	 * trailing space.
+	 */
+	static Set<String> trigrams(String normalized) {
+		String padded = "  " + normalized + " ";
+		Set<String> grams = new LinkedHashSet<String>();
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + 3));
+		}
+		return grams;
+	}
+
+	/**
+	 * Edits tolerated for a query: 1 up to 4 characters, 2 up to 8, then 3.
+	 */
+	static int maxEdits(int length) {
+		return length <= 4 ? 1 : length <= 8 ? 2 : 3;
+	}
+
+	/**
+	 * @return true if the normalized query has no full trigram, so
+	 *         {@link #search(String, int)} cannot find anything for it
+	 */
+	public static boolean isTooShort(String query) {
+		return query == null || TitleTrie.normalize(query).length() < 3;
+	}
+
+	/**
+	 * Only titles sharing at least one trigram without padding with the query
+	 * are candidates, otherwise the word start trigram of a short query would
+	 * make nearly every title one.
+	 *
+	 * @return up to limit titles within the tolerated edit distance, closest
+	 *         and then most voted first; none if the query
+	 *         {@link #isTooShort(String) is too short}
+	 */
+	public List<Match> search(String query, int limit) {
+		List<Match> matches = new ArrayList<Match>();
+		if (isTooShort(query)) {
+			return matches;
+		}
+		String q = TitleTrie.normalize(query);
+		int maxEdits = maxEdits(q.length());
+		Set<String> grams = trigrams(q);
+		// One edit changes at most three trigrams
+		int minShared = Math.max(1, grams.size() - 3 * maxEdits);
+
+		lock.readLock().lock();
+		try {
+			int[] shared = new int[slots.size()];
+			boolean[] full = new boolean[slots.size()];
+			List<Integer> touched = new ArrayList<Integer>();
+			for (String gram : grams) {
+				Postings list = postings.get(gram);
+				if (list == null) {
+					continue;
+				}
+				boolean padded = gram.indexOf(' ') >= 0;
+				for (int i = 0; i < list.size; i++) {
+					int slot = list.slots[i];
+					if (shared[slot]++ == 0) {
+						touched.add(slot);
+					}
+					if (!padded) {
+						full[slot] = true;
+					}
+				}
+			}
+			for (int slot : touched) {
+				if (shared[slot] < minShared || !full[slot]) {
+					continue;
+				}
+				TitleTrie.Entry entry = slots.get(slot);
+				int distance = wordDistance(q, entry.normalized, maxEdits);
+				if (distance <= maxEdits) {
+					matches.add(new Match(entry, distance));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		Collections.sort(matches, RANKING);
+		return matches.size() > limit ? new ArrayList<Match>(matches.subList(0, limit)) : matches;
+	}
+
+	/**
+	 * Smallest prefix distance of the query to the text starting at any of its
+	 * words, so a missing leading "The" costs nothing.
+	 */
+	static int wordDistance(String query, String text, int max) {
+		int best = max + 1;
+		for (int start = 0; start < text.length() && best > 0; start++) {
+			if (start == 0 || text.charAt(start - 1) == ' ') {
+				best = Math.min(best, prefixDistance(query, text.substring(start), max));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Smallest edit distance between the query and any prefix of the text, or
+	 * max + 1 as soon as it is certain to exceed max.
+	 */
+	static int prefixDistance(String query, String text, int max) {
+		int n = Math.min(text.length(), query.length() + max);
+		int[] previous = new int[n + 1];
+		int[] current = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			previous[j] = j;
+		}
+		for (int i = 1; i <= query.length(); i++) {
+			current[0] = i;
+			int rowMin = current[0];
+			char c = query.charAt(i - 1);
+			for (int j = 1; j <= n; j++) {
+				int cost = c == text.charAt(j - 1) ? 0 : 1;
+				current[j] = Math.min(Math.min(current[j - 1], previous[j]) + 1, previous[j - 1] + cost);
+				rowMin = Math.min(rowMin, current[j]);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+		int best = max + 1;
+		for (int j = 0; j <= n; j++) {
+			best = Math.min(best, previous[j]);
+		}
+		return best;
+	}
+}
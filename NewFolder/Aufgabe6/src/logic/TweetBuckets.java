@@ -0,0 +1,184 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
+
+/**
+ * Stores the tweets of a movie in bucket documents of the "tweet_buckets"
+ * collection instead of an ever growing array in the movie document:
+ * 
+ * <pre>
+ * { movie : *title*, count : *n*, tweets : [ ... ] }
+ * </pre>
+ * 
+ * A bucket holds at most {@value #CAPACITY} tweets. The movie itself only
+ * keeps the {@value #RECENT} most recent tweets in "recentTweets" and the
+ * counters "tweetCount" and "geoTweetCount", so movie documents stay small.
+ */
+public class TweetBuckets {
+
+	public static final int CAPACITY = 100;
+	public static final int RECENT = 10;
+
+	private final DBCollection movies;
+	private final DBCollection buckets;
+
+	public TweetBuckets(DBCollection movies, DBCollection buckets) {
+		this.movies = movies;
+		this.buckets = buckets;
+	}
+
+	public DBCollection getCollection() {
+		return buckets;
+	}
+
+	public void createIndexes() {
+		buckets.createIndex(new BasicDBObject("movie", 1).append("count", 1), new BasicDBObject("background", true));
+	}
+
+	/**
+	 * Append tweets to the buckets of the movie(s) with the given title and
+	 * update their summary.
+	 */
+	public void append(String movie, List<DBObject> tweets) {
+		append(movie, tweets, false);
+	}
+
+	/**
+	 * Append tweets again after an append of them failed halfway. Tweets with
+	 * an "_id" that already are in a bucket are skipped, and the summary is
+	 * left alone if the last tweet already is in "recentTweets", so nothing is
+	 * counted twice.
+	 */
+	public void appendAgain(String movie, List<DBObject> tweets) {
+		append(movie, tweets, true);
+	}
+
+	private void append(String movie, List<DBObject> tweets, boolean again) {
+		List<DBObject> missing = again ? missing(movie, tweets) : tweets;
+
+		// Fill the bucket that still has room, then start new ones. The update
+		// only applies if the count is unchanged, so a concurrent append
+		// cannot push the bucket beyond its capacity.
+		int from = 0;
+		while (from < missing.size()) {
+			DBObject open = buckets.findOne(new BasicDBObject("movie", movie).append("count",
+					new BasicDBObject("$lt", CAPACITY)), new BasicDBObject("count", 1));
+			if (open == null) {
+				List<DBObject> chunk = missing.subList(from, Math.min(missing.size(), from + CAPACITY));
+				buckets.insert(new BasicDBObject("movie", movie).append("count", chunk.size()).append("tweets", chunk));
+				from += chunk.size();
+				continue;
+			}
+			int count = ((Number) open.get("count")).intValue();
+			List<DBObject> chunk = missing.subList(from, Math.min(missing.size(), from + CAPACITY - count));
+			WriteResult result = buckets.update(new BasicDBObject("_id", open.get("_id")).append("count", count),
+					new BasicDBObject("$push", new BasicDBObject("tweets", new BasicDBObject("$each", chunk)))
+							.append("$inc", new BasicDBObject("count", chunk.size())));
+			if (result.getN() > 0) {
+				from += chunk.size();
+			}
+		}
+
+		int geotagged = 0;
+		for (DBObject tweet : tweets) {
+			if (tweet.get("coordinates") != null) {
+				geotagged++;
+			}
+		}
+		List<DBObject> recent = tweets.subList(Math.max(0, tweets.size() - RECENT), tweets.size());
+		BasicDBObject query = new BasicDBObject("title", movie);
+		Object last = tweets.isEmpty() ? null : tweets.get(tweets.size() - 1).get("_id");
+		if (again && last != null) {
+			query.append("recentTweets._id", new BasicDBObject("$ne", last));
+		}
+		movies.update(query, new BasicDBObject("$push", new BasicDBObject(
+				"recentTweets", new BasicDBObject("$each", recent).append("$slice", -RECENT))).append("$inc",
+				new BasicDBObject("tweetCount", tweets.size()).append("geoTweetCount", geotagged)), false, true);
+	}
+
+	/**
+	 * @return the tweets that are not in a bucket of the movie yet
+	 */
+	private List<DBObject> missing(String movie, List<DBObject> tweets) {
+		List<Object> ids = new ArrayList<Object>();
+		for (DBObject tweet : tweets) {
+			if (tweet.get("_id") != null) {
+				ids.add(tweet.get("_id"));
+			}
+		}
+		if (ids.isEmpty()) {
+			return tweets;
+		}
+		Set<Object> stored = new HashSet<Object>();
+		DBCursor cursor = buckets.find(new BasicDBObject("movie", movie).append("tweets._id",
+				new BasicDBObject("$in", ids)), new BasicDBObject("tweets._id", 1));
+		try {
+			for (DBObject bucket : cursor) {
+				for (Object tweet : (List<?>) bucket.get("tweets")) {
+					stored.add(((DBObject) tweet).get("_id"));
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		List<DBObject> missing = new ArrayList<DBObject>();
+		for (DBObject tweet : tweets) {
+			if (tweet.get("_id") == null || !stored.contains(tweet.get("_id"))) {
+				missing.add(tweet);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Move tweets still embedded in movie documents into buckets. Running it
+	 * again after it was interrupted moves every tweet only once: the tweets
+	 * get an _id in the movie before they are appended, so tweets already in a
+	 * bucket are skipped (see {@link #appendAgain(String, List)}).
+	 * 
+	 * @return the number of migrated movies
+	 */
+	@SuppressWarnings("unchecked")
+	public int migrateEmbedded() {
+		int migrated = 0;
+		DBObject query = new BasicDBObject("tweets", new BasicDBObject("$exists", true));
+		DBCursor cursor = movies.find(query, new BasicDBObject("title", 1).append("tweets", 1));
+		try {
+			for (DBObject movie : cursor) {
+				Object embedded = movie.get("tweets");
+				if (embedded instanceof List && movie.get("title") != null) {
+					List<DBObject> tweets = (List<DBObject>) embedded;
+					boolean identified = true;
+					for (DBObject tweet : tweets) {
+						if (tweet.get("_id") == null) {
+							tweet.put("_id", new ObjectId());
+							identified = false;
+						}
+					}
+					if (!identified) {
+						movies.update(new BasicDBObject("_id", movie.get("_id")), new BasicDBObject("$set",
+								new BasicDBObject("tweets", tweets)));
+					}
+					appendAgain(movie.get("title").toString(), tweets);
+				}
+				movies.update(new BasicDBObject("_id", movie.get("_id")), new BasicDBObject("$unset",
+						new BasicDBObject("tweets", "")));
+				migrated++;
+			}
+		} finally {
+			cursor.close();
+		}
+		return migrated;
+	}
+}
@@ -0,0 +1,226 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory spatial index of geotagged tweets for the map. Every tweet is
+ * counted in one web mercator tile per level 0 to {@value #MAX_LEVEL} (the
+ * tiles Google Maps uses), so a viewport query only reads the pre-aggregated
+ * cells of one level: their tweet count, centroid and most tweeted movie.
+ *
+ * A zoom level is answered with cells {@value #DETAIL} levels finer than the
+ * map tiles, i.e. about 64 pixels wide, so the number of clusters depends on
+ * the viewport size but not on the number of tweets.
+ */
+public class TweetClusters {
+
+	public static final int MAX_LEVEL = 18;
+	private static final int DETAIL = 2;
+	private static final double MAX_LATITUDE = 85.05112878;
+
+	/**
+	 * Aggregated tweets of one tile.
+	 */
+	private static class Cell {
+		final int x;
+		final int y;
+		long count;
+		double latSum;
+		double lngSum;
+		final Map<String, int[]> movies = new HashMap<String, int[]>();
+		String topMovie;
+		int topCount;
+
+		Cell(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void add(double lat, double lng, String movie) {
+			count++;
+			latSum += lat;
+			lngSum += lng;
+			if (movie == null) {
+				return;
+			}
+			int[] movieCount = movies.get(movie);
+			if (movieCount == null) {
+				movieCount = new int[1];
+				movies.put(movie, movieCount);
+			}
+			if (++movieCount[0] > topCount) {
+				topCount = movieCount[0];
+				topMovie = movie;
+			}
+		}
+	}
+
+	/**
+	 * A cluster of tweets as returned by {@link TweetClusters#query}.
+	 */
+	public static class Cluster {
+		final int level;
+		final int x;
+		final int y;
+		final long count;
+		final double lat;
+		final double lng;
+		final String movie;
+		final int movieCount;
+
+		Cluster(int level, Cell cell) {
+			this.level = level;
+			this.x = cell.x;
+			this.y = cell.y;
+			this.count = cell.count;
+			this.lat = cell.latSum / cell.count;
+			this.lng = cell.lngSum / cell.count;
+			this.movie = cell.topMovie;
+			this.movieCount = cell.topCount;
+		}
+
+		/**
+		 * @return the tile as "level/x/y"
+		 */
+		public String getTile() {
+			return level + "/" + x + "/" + y;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getLat() {
+			return lat;
+		}
+
+		public double getLng() {
+			return lng;
+		}
+
+		/**
+		 * @return the most tweeted movie of the cluster
+		 */
+		public String getMovie() {
+			return movie;
+		}
+
+		public int getMovieCount() {
+			return movieCount;
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private List<Map<Long, Cell>> levels = newLevels();
+
+	private static List<Map<Long, Cell>> newLevels() {
+		List<Map<Long, Cell>> levels = new ArrayList<Map<Long, Cell>>(MAX_LEVEL + 1);
+		for (int level = 0; level <= MAX_LEVEL; level++) {
+			levels.add(new HashMap<Long, Cell>());
+		}
+		return levels;
+	}
+
+	/**
+	 * Count a geotagged tweet.
+	 */
+	public void add(double lat, double lng, String movie) {
+		lock.writeLock().lock();
+		try {
+			for (int level = 0; level <= MAX_LEVEL; level++) {
+				int x = tileX(lng, level);
+				int y = tileY(lat, level);
+				Map<Long, Cell> cells = levels.get(level);
+				Long key = key(x, y);
+				Cell cell = cells.get(key);
+				if (cell == null) {
+					cell = new Cell(x, y);
+					cells.put(key, cell);
+				}
+				cell.add(lat, lng, movie);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			levels = newLevels();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the clusters inside the bounding box at the given map zoom level.
+	 *         A box with west > east crosses the antimeridian.
+	 */
+	public List<Cluster> query(double west, double south, double east, double north, int zoom) {
+		int level = Math.max(0, Math.min(MAX_LEVEL, zoom + DETAIL));
+		int x0 = tileX(west, level);
+		int x1 = tileX(east, level);
+		// Tile rows count from the north
+		int y0 = tileY(north, level);
+		int y1 = tileY(south, level);
+		List<Cluster> clusters = new ArrayList<Cluster>();
+		lock.readLock().lock();
+		try {
+			Map<Long, Cell> cells = levels.get(level);
+			if (x0 <= x1) {
+				collect(cells, level, x0, x1, y0, y1, clusters);
+			} else {
+				collect(cells, level, x0, (1 << level) - 1, y0, y1, clusters);
+				collect(cells, level, 0, x1, y0, y1, clusters);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return clusters;
+	}
+
+	private static void collect(Map<Long, Cell> cells, int level, int x0, int x1, int y0, int y1,
+			List<Cluster> clusters) {
+		long tiles = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+		if (tiles > cells.size()) {
+			// Sparse level: cheaper to scan the occupied cells
+			for (Cell cell : cells.values()) {
+				if (cell.x >= x0 && cell.x <= x1 && cell.y >= y0 && cell.y <= y1) {
+					clusters.add(new Cluster(level, cell));
+				}
+			}
+		} else {
+			for (int x = x0; x <= x1; x++) {
+				for (int y = y0; y <= y1; y++) {
+					Cell cell = cells.get(key(x, y));
+					if (cell != null) {
+						clusters.add(new Cluster(level, cell));
+					}
+				}
+			}
+		}
+	}
+
+	private static Long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	static int tileX(double lng, int level) {
+		int n = 1 << level;
+		int x = (int) Math.floor((lng + 180) / 360 * n);
+		return Math.max(0, Math.min(n - 1, x));
+	}
+
+	static int tileY(double lat, int level) {
+		int n = 1 << level;
+		double rad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+		double y = (1 - Math.log(Math.tan(rad) + 1 / Math.cos(rad)) / Math.PI) / 2;
+		return Math.max(0, Math.min(n - 1, (int) Math.floor(y * n)));
+	}
+}
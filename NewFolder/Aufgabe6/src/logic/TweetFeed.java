@@ -0,0 +1,183 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.DBObject;
+
+/**
+ * Pushes newly saved tweets to subscribed clients. Every subscriber has its own
+ * bounded buffer; when a client cannot keep up, its oldest undelivered tweets
+ * are dropped, so a slow client never holds back the stream or the other
+ * clients. A daemon thread hands the buffered tweets to the subscribers and
+ * sends a heartbeat to idle ones every {@value #HEARTBEAT_MILLIS} ms, which
+ * also detects clients that went away.
+ *
+ * Deliveries run on a pool of writer threads, at most one per subscriber at a
+ * time, so a client whose connection blocks only stalls its own delivery.
+ * A subscriber whose delivery takes longer than {@value #WRITE_TIMEOUT_MILLIS}
+ * ms is removed and told to give up.
+ */
+public class TweetFeed {
+
+	public static final int BUFFER_SIZE = 256;
+	private static final long HEARTBEAT_MILLIS = 15000;
+	private static final long WRITE_TIMEOUT_MILLIS = 10000;
+
+	/**
+	 * Receives tweets on a writer thread, never concurrently.
+	 */
+	public interface Listener {
+		/**
+		 * @param tweets
+		 *            the tweets buffered since the last call, oldest first;
+		 *            empty for a heartbeat
+		 * @return false to unsubscribe, e.g. because the client is gone
+		 */
+		boolean deliver(List<DBObject> tweets);
+
+		/**
+		 * Called on the feed thread after the subscriber was removed because
+		 * a delivery blocked too long. Should close the connection, so the
+		 * blocked delivery fails and frees its thread.
+		 */
+		void timedOut();
+	}
+
+	private static class Subscriber {
+		final Listener listener;
+		final BlockingQueue<DBObject> buffer = new ArrayBlockingQueue<DBObject>(BUFFER_SIZE);
+		// Only used by the feed thread
+		long lastDelivery = System.currentTimeMillis();
+		// Start of the running delivery, 0 if there is none
+		volatile long deliveringSince;
+
+		Subscriber(Listener listener) {
+			this.listener = listener;
+		}
+	}
+
+	private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+	private final Object signal = new Object();
+	private final AtomicLong dropped = new AtomicLong();
+	private final ExecutorService writers = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger threads = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "tweet-feed-writer-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public TweetFeed() {
+		Thread deliverer = new Thread("tweet-feed") {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						synchronized (signal) {
+							signal.wait(1000);
+						}
+						deliver();
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		};
+		deliverer.setDaemon(true);
+		deliverer.start();
+	}
+
+	public void subscribe(Listener listener) {
+		subscribers.add(new Subscriber(listener));
+	}
+
+	public int size() {
+		return subscribers.size();
+	}
+
+	/**
+	 * @return the number of tweets dropped for slow clients
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Hand a tweet to all subscribers, without waiting for any of them.
+	 */
+	public void publish(DBObject tweet) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		for (Subscriber subscriber : subscribers) {
+			while (!subscriber.buffer.offer(tweet)) {
+				if (subscriber.buffer.poll() != null) {
+					dropped.incrementAndGet();
+				}
+			}
+		}
+		synchronized (signal) {
+			signal.notify();
+		}
+	}
+
+	private void deliver() {
+		long now = System.currentTimeMillis();
+		for (final Subscriber subscriber : subscribers) {
+			long since = subscriber.deliveringSince;
+			if (since != 0) {
+				// Still writing, its buffer keeps the newest tweets meanwhile
+				if (now - since > WRITE_TIMEOUT_MILLIS) {
+					subscribers.remove(subscriber);
+					try {
+						subscriber.listener.timedOut();
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+				continue;
+			}
+			final List<DBObject> tweets = new ArrayList<DBObject>();
+			subscriber.buffer.drainTo(tweets);
+			if (tweets.isEmpty() && now - subscriber.lastDelivery < HEARTBEAT_MILLIS) {
+				continue;
+			}
+			subscriber.lastDelivery = now;
+			subscriber.deliveringSince = now;
+			writers.execute(new Runnable() {
+				@Override
+				public void run() {
+					boolean keep;
+					try {
+						keep = subscriber.listener.deliver(tweets);
+					} catch (RuntimeException e) {
+						keep = false;
+					}
+					subscriber.deliveringSince = 0;
+					if (!keep) {
+						subscribers.remove(subscriber);
+					} else if (!subscriber.buffer.isEmpty()) {
+						// Published while writing
+						synchronized (signal) {
+							signal.notify();
+						}
+					}
+				}
+			});
+		}
+	}
+}
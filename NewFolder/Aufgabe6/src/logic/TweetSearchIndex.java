@@ -0,0 +1,314 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Full text search over tweets with BM25 ranking.
+ *
+ * Tweets are appended to fixed size segments, each with its own positional
+ * inverted index; only the newest segment still grows, so adding a tweet never
+ * copies more than one segment's postings. Document frequencies and lengths
+ * are kept across segments for scoring.
+ *
+ * The query syntax follows MongoDB text search: words are alternatives,
+ * {@code "quoted phrases"} are required and a leading {@code -} excludes a word
+ * or phrase.
+ */
+public class TweetSearchIndex {
+
+	private static final int SEGMENT_SIZE = 4096;
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+
+	private static final Pattern QUERY_PART = Pattern.compile("(-?)\"([^\"]*)\"?|(-?)(\\S+)");
+
+	private static final Comparator<Hit> WORST_FIRST = new Comparator<Hit>() {
+		@Override
+		public int compare(Hit a, Hit b) {
+			return Double.compare(a.score, b.score);
+		}
+	};
+
+	/**
+	 * A scored hit.
+	 */
+	public static class Hit {
+		final Object id;
+		final double score;
+
+		Hit(Object id, double score) {
+			this.id = id;
+			this.score = score;
+		}
+
+		public Object getId() {
+			return id;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/**
+	 * Postings of one term within a segment, ordered by document.
+	 */
+	private static class Postings {
+		int[] docs = new int[2];
+		int[][] positions = new int[2][];
+		int size;
+
+		void add(int doc, int[] docPositions) {
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size * 2);
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			docs[size] = doc;
+			positions[size] = docPositions;
+			size++;
+		}
+
+		int[] positionsOf(int doc) {
+			int pos = Arrays.binarySearch(docs, 0, size, doc);
+			return pos >= 0 ? positions[pos] : null;
+		}
+	}
+
+	private static class Segment {
+		final Object[] ids = new Object[SEGMENT_SIZE];
+		final int[] lengths = new int[SEGMENT_SIZE];
+		final Map<String, Postings> terms = new HashMap<String, Postings>();
+		int size;
+	}
+
+	/**
+	 * A parsed query. Phrases of a single word are plain terms.
+	 */
+	static class Query {
+		final List<String> terms = new ArrayList<String>();
+		final List<List<String>> phrases = new ArrayList<List<String>>();
+		final List<List<String>> excluded = new ArrayList<List<String>>();
+
+		static Query parse(String text) {
+			Query query = new Query();
+			Matcher matcher = QUERY_PART.matcher(text);
+			while (matcher.find()) {
+				boolean phrase = matcher.group(2) != null;
+				boolean negated = phrase ? matcher.group(1).length() > 0 : matcher.group(3).length() > 0;
+				List<String> tokens = Tokenizer.tokenize(phrase ? matcher.group(2) : matcher.group(4));
+				if (tokens.isEmpty()) {
+					continue;
+				}
+				if (negated) {
+					query.excluded.add(tokens);
+				} else if (phrase || tokens.size() > 1) {
+					query.phrases.add(tokens);
+					query.terms.addAll(tokens);
+				} else {
+					query.terms.add(tokens.get(0));
+				}
+			}
+			return query;
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final List<Segment> segments = new ArrayList<Segment>();
+	private final Map<String, Integer> documentFrequencies = new HashMap<String, Integer>();
+	private long documents;
+	private long totalLength;
+
+	/**
+	 * Index a tweet.
+	 *
+	 * @param id
+	 *            the _id of the tweet document
+	 */
+	public void add(Object id, String text) {
+		List<String> tokens = Tokenizer.tokenize(text);
+		Map<String, int[]> positions = new HashMap<String, int[]>();
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (String token : tokens) {
+			Integer count = counts.get(token);
+			counts.put(token, count == null ? 1 : count + 1);
+		}
+		for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+			positions.put(entry.getKey(), new int[entry.getValue()]);
+			entry.setValue(0);
+		}
+		for (int i = 0; i < tokens.size(); i++) {
+			String token = tokens.get(i);
+			int filled = counts.get(token);
+			positions.get(token)[filled] = i;
+			counts.put(token, filled + 1);
+		}
+
+		lock.writeLock().lock();
+		try {
+			Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+			if (segment == null || segment.size == SEGMENT_SIZE) {
+				segment = new Segment();
+				segments.add(segment);
+			}
+			int doc = segment.size++;
+			segment.ids[doc] = id;
+			segment.lengths[doc] = tokens.size();
+			for (Map.Entry<String, int[]> entry : positions.entrySet()) {
+				Postings postings = segment.terms.get(entry.getKey());
+				if (postings == null) {
+					postings = new Postings();
+					segment.terms.put(entry.getKey(), postings);
+				}
+				postings.add(doc, entry.getValue());
+				Integer df = documentFrequencies.get(entry.getKey());
+				documentFrequencies.put(entry.getKey(), df == null ? 1 : df + 1);
+			}
+			documents++;
+			totalLength += tokens.size();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			segments.clear();
+			documentFrequencies.clear();
+			documents = 0;
+			totalLength = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public long size() {
+		lock.readLock().lock();
+		try {
+			return documents;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Costs a heap of offset + limit hits, so callers should bound both.
+	 *
+	 * @return the hits ranked offset to offset + limit, best first
+	 */
+	public List<Hit> search(String text, int offset, int limit) {
+		Query query = Query.parse(text);
+		List<Hit> page = new ArrayList<Hit>();
+		if (query.terms.isEmpty() || limit <= 0) {
+			return page;
+		}
+		offset = Math.max(0, offset);
+		int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+		// Min-heap of the best k hits seen so far
+		PriorityQueue<Hit> best = new PriorityQueue<Hit>(Math.min(k, 1024), WORST_FIRST);
+
+		lock.readLock().lock();
+		try {
+			double averageLength = documents == 0 ? 1 : (double) totalLength / documents;
+			double[] idf = new double[query.terms.size()];
+			for (int t = 0; t < idf.length; t++) {
+				Integer df = documentFrequencies.get(query.terms.get(t));
+				idf[t] = df == null ? 0 : Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+			}
+
+			// Only the documents in the postings of the query are scored and
+			// ranked; they are collected in touched and their scores reset
+			// afterwards, instead of clearing and scanning every document
+			double[] scores = new double[SEGMENT_SIZE];
+			int[] touched = new int[SEGMENT_SIZE];
+			for (Segment segment : segments) {
+				int count = 0;
+				for (int t = 0; t < idf.length; t++) {
+					Postings postings = segment.terms.get(query.terms.get(t));
+					if (postings == null || idf[t] == 0) {
+						continue;
+					}
+					for (int i = 0; i < postings.size; i++) {
+						int doc = postings.docs[i];
+						int tf = postings.positions[i].length;
+						double norm = K1 * (1 - B + B * segment.lengths[doc] / averageLength);
+						// idf[t] is positive, so a score of 0 means not seen yet
+						if (scores[doc] == 0) {
+							touched[count++] = doc;
+						}
+						scores[doc] += idf[t] * tf * (K1 + 1) / (tf + norm);
+					}
+				}
+				for (int i = 0; i < count; i++) {
+					int doc = touched[i];
+					double score = scores[doc];
+					scores[doc] = 0;
+					// Phrases and exclusions are only checked for documents
+					// that would make it into the top k
+					boolean full = best.size() == k;
+					if ((full && score <= best.peek().score) || !matches(segment, doc, query)) {
+						continue;
+					}
+					if (full) {
+						best.poll();
+					}
+					best.add(new Hit(segment.ids[doc], score));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+
+		List<Hit> ranked = new ArrayList<Hit>(best);
+		Collections.sort(ranked, Collections.reverseOrder(WORST_FIRST));
+		for (int i = offset; i < ranked.size(); i++) {
+			page.add(ranked.get(i));
+		}
+		return page;
+	}
+
+	private static boolean matches(Segment segment, int doc, Query query) {
+		for (List<String> phrase : query.phrases) {
+			if (!containsPhrase(segment, doc, phrase)) {
+				return false;
+			}
+		}
+		for (List<String> phrase : query.excluded) {
+			if (containsPhrase(segment, doc, phrase)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean containsPhrase(Segment segment, int doc, List<String> phrase) {
+		int[][] positions = new int[phrase.size()][];
+		for (int i = 0; i < positions.length; i++) {
+			Postings postings = segment.terms.get(phrase.get(i));
+			positions[i] = postings == null ? null : postings.positionsOf(doc);
+			if (positions[i] == null) {
+				return false;
+			}
+		}
+		starts: for (int start : positions[0]) {
+			for (int i = 1; i < positions.length; i++) {
+				if (Arrays.binarySearch(positions[i], start + i) < 0) {
+					continue starts;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,152 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index from the terms of tweet texts to the movies they were
+ * tweeted about. Movies are numbered in order of appearance and every term
+ * keeps a sorted array of movie numbers, so multi-term queries are answered by
+ * intersecting arrays.
+ */
+public class TweetTermIndex {
+
+	/**
+	 * Sorted set of movie numbers.
+	 */
+	private static class Postings {
+		int[] movies = new int[2];
+		int size;
+
+		void add(int movie) {
+			int pos = Arrays.binarySearch(movies, 0, size, movie);
+			if (pos >= 0) {
+				return;
+			}
+			pos = -pos - 1;
+			if (size == movies.length) {
+				movies = Arrays.copyOf(movies, size * 2);
+			}
+			System.arraycopy(movies, pos, movies, pos + 1, size - pos);
+			movies[pos] = movie;
+			size++;
+		}
+	}
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+	private final List<String> titles = new ArrayList<String>();
+	private final Map<String, Postings> postings = new HashMap<String, Postings>();
+
+	/**
+	 * Index the text of a tweet about the movie with the given title.
+	 */
+	public void add(String movie, String text) {
+		Set<String> terms = new LinkedHashSet<String>(Tokenizer.tokenize(text));
+		if (terms.isEmpty()) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			Integer number = numbers.get(movie);
+			if (number == null) {
+				number = titles.size();
+				numbers.put(movie, number);
+				titles.add(movie);
+			}
+			for (String term : terms) {
+				Postings list = postings.get(term);
+				if (list == null) {
+					list = new Postings();
+					postings.put(term, list);
+				}
+				list.add(number);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			numbers.clear();
+			titles.clear();
+			postings.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return titles of up to limit movies with tweets containing all terms
+	 *         of the query, in order of first indexing
+	 */
+	public List<String> find(String query, int limit) {
+		List<String> terms = new ArrayList<String>(new LinkedHashSet<String>(Tokenizer.tokenize(query)));
+		List<String> result = new ArrayList<String>();
+		if (terms.isEmpty()) {
+			return result;
+		}
+		lock.readLock().lock();
+		try {
+			// Intersect, driven by the shortest list
+			int[][] lists = new int[terms.size()][];
+			int[] sizes = new int[terms.size()];
+			for (int i = 0; i < terms.size(); i++) {
+				Postings list = postings.get(terms.get(i));
+				if (list == null) {
+					return result;
+				}
+				lists[i] = list.movies;
+				sizes[i] = list.size;
+			}
+			int shortest = 0;
+			for (int i = 1; i < lists.length; i++) {
+				if (sizes[i] < sizes[shortest]) {
+					shortest = i;
+				}
+			}
+			// Walk the shortest list and look each movie up in the others; the
+			// cursors only move forward, and we stop at the limit
+			int[] cursors = new int[lists.length];
+			candidates: for (int c = 0; c < sizes[shortest] && result.size() < limit; c++) {
+				int movie = lists[shortest][c];
+				for (int i = 0; i < lists.length; i++) {
+					if (i == shortest) {
+						continue;
+					}
+					int found = Arrays.binarySearch(lists[i], cursors[i], sizes[i], movie);
+					if (found < 0) {
+						cursors[i] = -found - 1;
+						if (cursors[i] == sizes[i]) {
+							break candidates;
+						}
+						continue candidates;
+					}
+					cursors[i] = found + 1;
+				}
+				result.add(titles.get(movie));
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return postings.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package logic;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+
+/**
+ * Write-behind stage for tweets. The stream thread only enqueues; a background
+ * thread writes batches with one bulk insert into the tweets collection and
+ * one bucket append per movie (see {@link TweetBuckets}). Failed writes are
+ * retried with backoff and then put back into the buffer, only tweets that
+ * failed {@value #REQUEUES} times are given up. Every tweet stored in the
+ * tweets collection is passed to the {@link Listener}; tweets that were
+ * dropped or given up never are.
+ *
+ * Configured with the system properties {@code tweets.batchSize},
+ * {@code tweets.flushMillis}, {@code tweets.queueCapacity},
+ * {@code tweets.backpressure} (see {@link Backpressure}) and
+ * {@code tweets.echo} to print every written tweet.
+ */
+public class TweetWriter {
+
+	/**
+	 * What to do when the buffer is full.
+	 */
+	public enum Backpressure {
+		/** Wait until there is room, stalling the stream */
+		BLOCK,
+		/** Discard the tweet being added */
+		DROP_NEWEST,
+		/** Discard the oldest buffered tweet */
+		DROP_OLDEST
+	}
+
+	/**
+	 * Told about every tweet once it is stored, on the thread that wrote it.
+	 */
+	public interface Listener {
+		void written(String movie, DBObject raw, DBObject embedded);
+	}
+
+	private static final int ATTEMPTS = 4;
+	private static final long RETRY_MILLIS = 250;
+	private static final int REQUEUES = 3;
+
+	private static class Pending {
+		final String movie;
+		final DBObject raw;
+		final DBObject embedded;
+		/** In the tweets collection, only the bucket append is left */
+		boolean stored;
+		int requeued;
+
+		Pending(String movie, DBObject raw, DBObject embedded) {
+			this.movie = movie;
+			this.raw = raw;
+			this.embedded = embedded;
+		}
+	}
+
+	private final TweetBuckets buckets;
+	private final DBCollection tweets;
+	private final Listener listener;
+	private final BlockingQueue<Pending> queue;
+	private final int batchSize;
+	private final long flushMillis;
+	private final Backpressure backpressure;
+	private final boolean echo;
+	private final WriteConcern writeConcern = WriteConcern.ACKNOWLEDGED.continueOnErrorForInsert(true);
+	private final Object flushLock = new Object();
+	private final Thread flusher;
+	private volatile boolean closed;
+
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public TweetWriter(TweetBuckets buckets, DBCollection tweets, Listener listener) {
+		this(buckets, tweets, listener, Integer.getInteger("tweets.batchSize", 500), Long.getLong("tweets.flushMillis", 1000),
+				Integer.getInteger("tweets.queueCapacity", 10000), Backpressure.valueOf(System.getProperty(
+						"tweets.backpressure", Backpressure.BLOCK.name())), Boolean.getBoolean("tweets.echo"));
+	}
+
+	public TweetWriter(TweetBuckets buckets, DBCollection tweets, Listener listener, int batchSize,
+			long flushMillis, int capacity, Backpressure backpressure, boolean echo) {
+		this.buckets = buckets;
+		this.tweets = tweets;
+		this.listener = listener;
+		this.batchSize = batchSize;
+		this.flushMillis = flushMillis;
+		this.queue = new ArrayBlockingQueue<Pending>(capacity);
+		this.backpressure = backpressure;
+		this.echo = echo;
+
+		flusher = new Thread("tweet-writer") {
+			@Override
+			public void run() {
+				while (!closed) {
+					try {
+						flushBatch(true);
+					} catch (InterruptedException e) {
+						return;
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Buffer a tweet for writing.
+	 *
+	 * @param movie
+	 *            title of the movie the tweet belongs to
+	 * @param raw
+	 *            document for the tweets collection
+	 * @param embedded
+	 *            document for the buckets and "recentTweets" of the movie
+	 * @return false if the tweet was dropped; with
+	 *         {@link Backpressure#DROP_OLDEST} an older one is dropped instead.
+	 *         Tweets are always dropped once the writer is closed.
+	 */
+	public boolean write(String movie, DBObject raw, DBObject embedded) {
+		if (closed) {
+			dropped.incrementAndGet();
+			return false;
+		}
+		Pending pending = new Pending(movie, raw, embedded);
+		switch (backpressure) {
+		case BLOCK:
+			try {
+				queue.put(pending);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				dropped.incrementAndGet();
+				return false;
+			}
+		case DROP_OLDEST:
+			while (!queue.offer(pending)) {
+				if (queue.poll() != null) {
+					dropped.incrementAndGet();
+				}
+			}
+			return true;
+		default:
+			if (queue.offer(pending)) {
+				return true;
+			}
+			dropped.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Write everything buffered so far, on the calling thread.
+	 */
+	public void flush() {
+		try {
+			while (!queue.isEmpty()) {
+				flushBatch(false);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop the background thread and write everything still buffered, e.g. on
+	 * shutdown. Tweets written afterwards are dropped.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * Run a task while no batch is written, e.g. to rebuild an index from the
+	 * collections: every tweet is then either stored and reported to the
+	 * listener before the task, or only after it. Tweets keep being buffered
+	 * meanwhile.
+	 */
+	public void whilePaused(Runnable task) {
+		synchronized (flushLock) {
+			task.run();
+		}
+	}
+
+	/**
+	 * Collect up to batchSize tweets, waiting at most flushMillis for the
+	 * batch to fill when waiting is allowed, and write them.
+	 */
+	private void flushBatch(boolean wait) throws InterruptedException {
+		List<Pending> batch = new ArrayList<Pending>(batchSize);
+		if (wait) {
+			Pending first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+			if (first == null) {
+				return;
+			}
+			batch.add(first);
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+			while (batch.size() < batchSize) {
+				queue.drainTo(batch, batchSize - batch.size());
+				long remaining = deadline - System.nanoTime();
+				if (batch.size() == batchSize || remaining <= 0) {
+					break;
+				}
+				Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+				if (next == null) {
+					break;
+				}
+				batch.add(next);
+			}
+		} else {
+			queue.drainTo(batch, batchSize);
+		}
+		if (!batch.isEmpty()) {
+			synchronized (flushLock) {
+				write(batch);
+			}
+		}
+	}
+
+	private void write(List<Pending> batch) {
+		List<Pending> inserted = insert(batch);
+
+		Map<String, List<Pending>> byMovie = new LinkedHashMap<String, List<Pending>>();
+		for (Pending pending : batch) {
+			if (pending.stored) {
+				List<Pending> pendings = byMovie.get(pending.movie);
+				if (pendings == null) {
+					pendings = new ArrayList<Pending>();
+					byMovie.put(pending.movie, pendings);
+				}
+				pendings.add(pending);
+			}
+		}
+		for (Map.Entry<String, List<Pending>> entry : byMovie.entrySet()) {
+			// Append Tweets to the buckets of the matching Movie(s)
+			append(entry.getKey(), entry.getValue());
+		}
+
+		for (Pending pending : inserted) {
+			if (echo) {
+				System.out.format("%-20s %-20s %-140s%n", pending.movie, pending.embedded.get("user"),
+						String.valueOf(pending.embedded.get("text")).replace("\n", " "));
+			}
+			listener.written(pending.movie, pending.raw, pending.embedded);
+		}
+	}
+
+	/**
+	 * Insert the tweets of the batch that are not stored yet, retrying those
+	 * that did not make it. The _ids are assigned before, so a retry can ask
+	 * which tweets of a failed insert went through.
+	 * 
+	 * @return the tweets stored by this call
+	 */
+	private List<Pending> insert(List<Pending> batch) {
+		List<Pending> remaining = new ArrayList<Pending>();
+		for (Pending pending : batch) {
+			if (!pending.stored) {
+				remaining.add(pending);
+			}
+		}
+		List<Pending> inserted = new ArrayList<Pending>(remaining);
+		long delay = RETRY_MILLIS;
+		for (int attempt = 1; !remaining.isEmpty(); attempt++) {
+			List<DBObject> raw = new ArrayList<DBObject>(remaining.size());
+			for (Pending pending : remaining) {
+				raw.add(pending.raw);
+			}
+			try {
+				tweets.insert(raw, writeConcern);
+				remaining.clear();
+			} catch (MongoException e) {
+				remaining = notInserted(remaining);
+				if (!remaining.isEmpty() && (attempt == ATTEMPTS || !pause(delay))) {
+					System.err.println("Inserting " + remaining.size() + " tweets failed: " + e.getMessage());
+					inserted.removeAll(remaining);
+					requeue(remaining);
+					break;
+				}
+				delay *= 2;
+			}
+		}
+		for (Pending pending : inserted) {
+			pending.stored = true;
+		}
+		written.addAndGet(inserted.size());
+		return inserted;
+	}
+
+	/**
+	 * @return the tweets missing in the tweets collection, all of them if
+	 *         that cannot be told
+	 */
+	private List<Pending> notInserted(List<Pending> pendings) {
+		List<Object> ids = new ArrayList<Object>(pendings.size());
+		for (Pending pending : pendings) {
+			ids.add(pending.raw.get("_id"));
+		}
+		Set<Object> stored = new HashSet<Object>();
+		try {
+			DBCursor cursor = tweets.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)), new BasicDBObject(
+					"_id", 1));
+			try {
+				for (DBObject tweet : cursor) {
+					stored.add(tweet.get("_id"));
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (MongoException e) {
+			return pendings;
+		}
+		List<Pending> missing = new ArrayList<Pending>();
+		for (Pending pending : pendings) {
+			if (!stored.contains(pending.raw.get("_id"))) {
+				missing.add(pending);
+			}
+		}
+		return missing;
+	}
+
+	/**
+	 * Append stored tweets to the buckets of a movie, retrying without
+	 * appending twice (see {@link TweetBuckets#appendAgain(String, List)}).
+	 */
+	private void append(String movie, List<Pending> pendings) {
+		List<DBObject> embedded = new ArrayList<DBObject>(pendings.size());
+		boolean again = false;
+		for (Pending pending : pendings) {
+			embedded.add(pending.embedded);
+			again |= pending.requeued > 0;
+		}
+		long delay = RETRY_MILLIS;
+		for (int attempt = 1;; attempt++) {
+			try {
+				if (attempt == 1 && !again) {
+					buckets.append(movie, embedded);
+				} else {
+					buckets.appendAgain(movie, embedded);
+				}
+				return;
+			} catch (MongoException e) {
+				if (attempt == ATTEMPTS || !pause(delay)) {
+					System.err.println("Appending " + pendings.size() + " tweets to " + movie + " failed: "
+							+ e.getMessage());
+					requeue(pendings);
+					return;
+				}
+				delay *= 2;
+			}
+		}
+	}
+
+	/**
+	 * Put tweets back into the buffer to be written with a later batch, or
+	 * give them up if they failed too often or there is no room.
+	 */
+	private void requeue(List<Pending> pendings) {
+		for (Pending pending : pendings) {
+			if (++pending.requeued >= REQUEUES || !queue.offer(pending)) {
+				failed.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return false if interrupted
+	 */
+	private static boolean pause(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * @return counters of the pipeline
+	 */
+	public DBObject status() {
+		return new BasicDBObject("queued", queue.size()).append("written", written.get())
+				.append("dropped", dropped.get()).append("failed", failed.get())
+				.append("backpressure", backpressure.name());
+	}
+}
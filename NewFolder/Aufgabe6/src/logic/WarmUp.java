@@ -0,0 +1,196 @@
+package logic;
+
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Runs the start-up work of a service (seeding, index builds, ...) as named
+ * background tasks, one after another in submission order, and keeps track of
+ * their state. The server can bind immediately while the tasks are running;
+ * requests that depend on an unfinished task are rejected with a
+ * {@link NotReadyException}.
+ *
+ * A failed task is retried after {@value #FIRST_RETRY_SECONDS} seconds,
+ * doubling the delay with every further failure up to
+ * {@value #MAX_RETRY_SECONDS} seconds. The tasks submitted after it wait until
+ * it has succeeded, as they usually build on its result.
+ */
+public class WarmUp {
+
+	private static final long FIRST_RETRY_SECONDS = 5;
+	private static final long MAX_RETRY_SECONDS = 600;
+
+	public enum State {
+		PENDING, RUNNING, DONE, FAILED
+	}
+
+	private static class Task {
+		final String name;
+		final Runnable runnable;
+		State state = State.PENDING;
+		Date started;
+		Date finished;
+		String error;
+		int failures;
+		Date retry;
+
+		Task(String name, Runnable runnable) {
+			this.name = name;
+			this.runnable = runnable;
+		}
+	}
+
+	private final Map<String, Task> tasks = new LinkedHashMap<String, Task>();
+	// Guarded by this: the unfinished tasks in submission order, the head is
+	// running or waiting for its retry
+	private final Queue<Task> queue = new ArrayDeque<Task>();
+	private final ScheduledExecutorService executor;
+	private final Runnable runNext = new Runnable() {
+		@Override
+		public void run() {
+			runNext();
+		}
+	};
+
+	public WarmUp(final String name) {
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name + "-warmup");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Schedules a task. Tasks run in the order they were submitted.
+	 */
+	public synchronized void submit(String name, Runnable runnable) {
+		Task task = new Task(name, runnable);
+		tasks.put(name, task);
+		queue.add(task);
+		if (queue.size() == 1) {
+			executor.execute(runNext);
+		}
+	}
+
+	private void runNext() {
+		Task task;
+		synchronized (this) {
+			task = queue.peek();
+			if (task == null) {
+				return;
+			}
+			task.retry = null;
+			update(task, State.RUNNING, null);
+		}
+		try {
+			task.runnable.run();
+			update(task, State.DONE, null);
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			update(task, State.FAILED, e.toString());
+		}
+		long millis = task.finished.getTime() - task.started.getTime();
+		String result = "Warm-up task " + task.name + " " + task.state.name().toLowerCase() + " after " + millis + " ms";
+		synchronized (this) {
+			if (task.state == State.DONE) {
+				queue.remove();
+				if (!queue.isEmpty()) {
+					executor.execute(runNext);
+				}
+			} else {
+				task.failures++;
+				long delay = Math.min(FIRST_RETRY_SECONDS << Math.min(task.failures - 1, 20), MAX_RETRY_SECONDS);
+				task.retry = new Date(System.currentTimeMillis() + delay * 1000);
+				executor.schedule(runNext, delay, TimeUnit.SECONDS);
+				result += ", retrying in " + delay + " s";
+			}
+		}
+		System.out.println(result);
+	}
+
+	private synchronized void update(Task task, State state, String error) {
+		task.state = state;
+		task.error = error;
+		if (state == State.RUNNING) {
+			task.started = new Date();
+		} else {
+			task.finished = new Date();
+		}
+	}
+
+	/**
+	 * @return true if the task has completed successfully
+	 */
+	public synchronized boolean isDone(String name) {
+		Task task = tasks.get(name);
+		return task != null && task.state == State.DONE;
+	}
+
+	/**
+	 * @return true if all tasks have completed successfully
+	 */
+	public synchronized boolean isReady() {
+		for (Task task : tasks.values()) {
+			if (task.state != State.DONE) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fails fast if the given task has not completed yet.
+	 *
+	 * @throws NotReadyException
+	 *             if the task is pending, running or has failed and waits
+	 *             for its retry
+	 */
+	public void require(String name) {
+		if (!isDone(name)) {
+			throw new NotReadyException(name);
+		}
+	}
+
+	/**
+	 * @return the state of every task, suitable for the readiness endpoint
+	 */
+	public synchronized DBObject status() {
+		BasicDBObject result = new BasicDBObject("ready", isReady());
+		BasicDBObject states = new BasicDBObject();
+		for (Map.Entry<String, Task> entry : tasks.entrySet()) {
+			Task task = entry.getValue();
+			BasicDBObject state = new BasicDBObject("state", task.state.name().toLowerCase());
+			if (task.started != null) {
+				state.append("started", task.started);
+			}
+			if (task.finished != null) {
+				state.append("finished", task.finished);
+			}
+			if (task.error != null) {
+				state.append("error", task.error);
+			}
+			if (task.failures > 0) {
+				state.append("failures", task.failures);
+			}
+			if (task.retry != null) {
+				state.append("retry", task.retry);
+			}
+			states.append(entry.getKey(), state);
+		}
+		result.append("tasks", states);
+		return result;
+	}
+}
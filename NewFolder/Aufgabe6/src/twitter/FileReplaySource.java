@@ -0,0 +1,150 @@
+package twitter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Replays recorded tweets instead of the live stream, so ingestion can be
+ * tested and tuned offline. The file holds one raw tweet JSON per line, as
+ * sent by the streaming API. Like the stream, only tweets matching one of the
+ * tracked keywords are delivered; lines that are no tweet are skipped.
+ *
+ * Tweets are delivered at the given rate or, with a rate of 0, as fast as the
+ * listener takes them. At the end of the file the replay starts over if it
+ * loops, otherwise the listener is stopped.
+ */
+public class FileReplaySource implements TweetSource {
+
+	private final File file;
+	private final double tweetsPerSecond;
+	private final boolean loop;
+	private TweetListener listener;
+	private Thread replay;
+	// Null while paused by cleanUp()
+	private TitleMatcher matcher;
+	private volatile boolean stopped;
+	// The tweet being delivered, only used by the replay thread
+	private Status current;
+	private String currentJSON;
+
+	public FileReplaySource(File file, double tweetsPerSecond, boolean loop) {
+		this.file = file;
+		this.tweetsPerSecond = tweetsPerSecond;
+		this.loop = loop;
+	}
+
+	public void listenToStream(TweetListener listener) {
+		this.listener = listener;
+		listener.start(this);
+	}
+
+	public synchronized void filter(String[] track) {
+		matcher = new TitleMatcher(track);
+		notifyAll();
+		if (replay == null && !stopped) {
+			replay = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					replay();
+				}
+			}, "replay-" + file.getName());
+			replay.setDaemon(true);
+			replay.start();
+		}
+	}
+
+	public synchronized void cleanUp() {
+		matcher = null;
+	}
+
+	public void shutdown() {
+		Thread thread;
+		synchronized (this) {
+			stopped = true;
+			notifyAll();
+			thread = replay;
+		}
+		if (thread != null && thread != Thread.currentThread()) {
+			thread.interrupt();
+		}
+	}
+
+	public String getRawJSON(Status status) {
+		return status == current ? currentJSON : null;
+	}
+
+	private void replay() {
+		long start = System.nanoTime();
+		long delivered = 0;
+		do {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+					StandardCharsets.UTF_8))) {
+				String line;
+				while (!stopped && (line = in.readLine()) != null) {
+					TitleMatcher track = awaitFilter();
+					if (track == null || line.trim().isEmpty()) {
+						continue;
+					}
+					Status status;
+					try {
+						status = TwitterObjectFactory.createStatus(line);
+					} catch (TwitterException e) {
+						continue;
+					}
+					if (status.getText() == null || track.match(status.getText()).isEmpty()) {
+						continue;
+					}
+					if (tweetsPerSecond > 0) {
+						pace(start + (long) (delivered * 1e9 / tweetsPerSecond));
+					}
+					delivered++;
+					current = status;
+					currentJSON = line;
+					listener.onStatus(status);
+				}
+			} catch (IOException e) {
+				if (!stopped) {
+					listener.onException(e);
+				}
+				return;
+			}
+		} while (loop && !stopped);
+		if (!stopped) {
+			// End of the recording
+			listener.stop();
+		}
+	}
+
+	/**
+	 * @return the current filter, or null once stopped
+	 */
+	private synchronized TitleMatcher awaitFilter() {
+		while (matcher == null && !stopped) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				// Check stopped again
+			}
+		}
+		return stopped ? null : matcher;
+	}
+
+	private void pace(long due) {
+		long wait = due - System.nanoTime();
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			} catch (InterruptedException e) {
+				// Stopped or, if not, deliver a little early
+			}
+		}
+	}
+}
@@ -0,0 +1,252 @@
+package twitter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import logic.MovieService;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Runs the stream ingestion jobs started by the /stream resource. Jobs run on a
+ * bounded pool of {@code stream.maxJobs} threads (default 1, as Twitter allows
+ * only one filter stream per account) and wait in a queue of at most
+ * {@code stream.maxQueued} jobs (default 4). A job for the same keywords as a
+ * queued or running job is refused.
+ *
+ * Every job has an id to query its state and counters and to cancel it.
+ *
+ * With {@code stream.replayFile} set, jobs replay that recording (see
+ * {@link FileReplaySource}) at {@code stream.replayRate} tweets per second
+ * (default 0, as fast as possible), looping if {@code stream.replayLoop} is
+ * true, instead of listening to Twitter.
+ */
+public class IngestionManager {
+
+	private static final int HISTORY = 20;
+
+	public enum State {
+		QUEUED, RUNNING, DONE, CANCELLED, FAILED
+	}
+
+	/**
+	 * Thrown when a job cannot be accepted.
+	 */
+	public static class RefusedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		private final Integer duplicateOf;
+
+		RefusedException(String message, Integer duplicateOf) {
+			super(message);
+			this.duplicateOf = duplicateOf;
+		}
+
+		/**
+		 * @return the id of the job with the same keywords, or null
+		 */
+		public Integer getDuplicateOf() {
+			return duplicateOf;
+		}
+	}
+
+	private class Job implements Runnable {
+		final int id;
+		final String key;
+		final MovieTweetHandler handler;
+		final int limit;
+		final boolean tagged;
+		final Date created = new Date();
+		volatile State state = State.QUEUED;
+		volatile Date started;
+		volatile Date finished;
+		volatile String error;
+		Future<?> future;
+
+		Job(int id, String key, MovieTweetHandler handler, int limit, boolean tagged) {
+			this.id = id;
+			this.key = key;
+			this.handler = handler;
+			this.limit = limit;
+			this.tagged = tagged;
+		}
+
+		@Override
+		public void run() {
+			synchronized (IngestionManager.this) {
+				if (state != State.QUEUED) {
+					return;
+				}
+				state = State.RUNNING;
+				started = new Date();
+			}
+			try {
+				createSource().listenToStream(handler);
+			} catch (RuntimeException e) {
+				error = e.toString();
+			} finally {
+				synchronized (IngestionManager.this) {
+					if (state == State.RUNNING) {
+						state = error == null ? State.DONE : State.FAILED;
+					}
+					finished = new Date();
+				}
+				// Let the writer catch up, so the counters include this job
+				ms.getTweetWriter().flush();
+			}
+		}
+
+		DBObject status() {
+			long end = finished != null ? finished.getTime() : System.currentTimeMillis();
+			double seconds = started == null ? 0 : Math.max(1, end - started.getTime()) / 1000.0;
+			BasicDBList keywords = new BasicDBList();
+			keywords.addAll(Arrays.asList(handler.rawKeywords));
+			BasicDBObject status = new BasicDBObject("id", id).append("state", state.name())
+					.append("limit", limit).append("tagged", tagged).append("keywords", keywords.size())
+					.append("created", created).append("started", started).append("finished", finished)
+					.append("received", handler.getReceived()).append("saved", handler.getSaved())
+					.append("savedPerSecond", seconds == 0 ? 0 : handler.getSaved() / seconds);
+			if (error != null) {
+				status.append("error", error);
+			}
+			return status;
+		}
+	}
+
+	private final MovieService ms;
+	private final ThreadPoolExecutor executor;
+	private final AtomicInteger ids = new AtomicInteger();
+	// Guarded by this, oldest first
+	private final Map<Integer, Job> jobs = new LinkedHashMap<Integer, Job>();
+
+	public IngestionManager(MovieService ms) {
+		this(ms, Integer.getInteger("stream.maxJobs", 1), Integer.getInteger("stream.maxQueued", 4));
+	}
+
+	public IngestionManager(MovieService ms, int maxJobs, int maxQueued) {
+		this.ms = ms;
+		this.executor = new ThreadPoolExecutor(maxJobs, maxJobs, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(maxQueued), new ThreadFactory() {
+					private final AtomicInteger threads = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ingestion-" + threads.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Queue a stream job.
+	 *
+	 * @param tagged
+	 *            only save geotagged tweets
+	 * @return the status of the new job
+	 * @throws RefusedException
+	 *             if the keywords are already being streamed or the queue is
+	 *             full
+	 */
+	public synchronized DBObject submit(int limit, String[] keywords, boolean tagged) {
+		MovieTweetHandler handler = new MovieTweetHandler(ms, limit, keywords);
+		handler.setIgnoreUntagged(tagged);
+		String key = key(handler.rawKeywords);
+		for (Job job : jobs.values()) {
+			if ((job.state == State.QUEUED || job.state == State.RUNNING) && job.key.equals(key)) {
+				throw new RefusedException("Job " + job.id + " already streams these keywords", job.id);
+			}
+		}
+		Job job = new Job(ids.incrementAndGet(), key, handler, limit, tagged);
+		try {
+			job.future = executor.submit(job);
+		} catch (RejectedExecutionException e) {
+			throw new RefusedException("Too many stream jobs, try again later", null);
+		}
+		jobs.put(job.id, job);
+		prune();
+		return job.status();
+	}
+
+	/**
+	 * Cancel a queued or stop a running job.
+	 *
+	 * @return false if there is no such job or it already ended
+	 */
+	public boolean cancel(int id) {
+		Job job;
+		synchronized (this) {
+			job = jobs.get(id);
+			if (job == null || !(job.state == State.QUEUED || job.state == State.RUNNING)) {
+				return false;
+			}
+			if (job.state == State.QUEUED) {
+				job.future.cancel(false);
+				executor.remove((Runnable) job.future);
+				job.finished = new Date();
+			}
+			job.state = State.CANCELLED;
+		}
+		job.handler.stop();
+		return true;
+	}
+
+	/**
+	 * @return the jobs, newest first, and the counters of the tweet writer
+	 */
+	public synchronized DBObject status() {
+		List<DBObject> list = new ArrayList<DBObject>(jobs.size());
+		for (Job job : jobs.values()) {
+			list.add(0, job.status());
+		}
+		return new BasicDBObject("active", executor.getActiveCount()).append("queued", executor.getQueue().size())
+				.append("jobs", list).append("writer", ms.getTweetWriter().status());
+	}
+
+	/**
+	 * Forget the oldest ended jobs beyond the history size.
+	 */
+	private void prune() {
+		int excess = jobs.size() - HISTORY;
+		for (Iterator<Job> it = jobs.values().iterator(); excess > 0 && it.hasNext();) {
+			Job job = it.next();
+			if (job.state != State.QUEUED && job.state != State.RUNNING) {
+				it.remove();
+				excess--;
+			}
+		}
+	}
+
+	private static TweetSource createSource() {
+		String replayFile = System.getProperty("stream.replayFile");
+		if (replayFile == null) {
+			return new TweetStream();
+		}
+		return new FileReplaySource(new File(replayFile), Double.parseDouble(System.getProperty(
+				"stream.replayRate", "0")), Boolean.getBoolean("stream.replayLoop"));
+	}
+
+	private static String key(String[] keywords) {
+		TreeSet<String> sorted = new TreeSet<String>();
+		for (String keyword : keywords) {
+			sorted.add(keyword.toLowerCase(Locale.ROOT));
+		}
+		return sorted.toString();
+	}
+}
@@ -1,29 +1,32 @@
 package twitter;
 
+import java.util.List;
+
 import logic.MovieService;
 import twitter4j.Status;
 
 public class MovieTweetHandler extends TweetListener {
 
 	private MovieService ms;
+	// All keywords, not just those of the current block: a tweet may mention
+	// more movies than the one it was sent for
+	private TitleMatcher matcher;
 
 	public MovieTweetHandler(MovieService ms, int limit, String[] keywords) {
 		super(limit, keywords);
 		this.ms = ms;
+		this.matcher = new TitleMatcher(rawKeywords);
 	}
 
 	@Override
 	public void onTweet(Status status) {
-		String text = status.getText().toLowerCase();
-		boolean matched = false;
-		for (String keyword : blocks.get(currentBlock)) {
-			// Check, which keyword the Tweet matches
-			if (text.contains(keyword.toLowerCase())) {
-				ms.saveTweet(keyword, status);
-				matched = true;
-			}
+		// Check, which keywords the Tweet matches
+		List<String> matched = matcher.match(status.getText());
+		for (String keyword : matched) {
+			ms.saveTweet(keyword, status, ts.getRawJSON(status));
+			saved.incrementAndGet();
 		}
-		if (!matched) {
+		if (matched.isEmpty()) {
 			//System.err.println("No match for tweet @" + status.getUser().getName() + ": " + status.getText());
 		}
 	}
@@ -0,0 +1,186 @@
+package twitter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds all of a fixed set of titles in a text with one pass over the text
+ * (Aho-Corasick). The automaton is built once, so matching a tweet costs the
+ * same for ten titles as for ten thousand.
+ *
+ * Matching ignores case. A title only matches as whole words: if it starts
+ * (ends) with a letter or digit, the character before (after) it must not be
+ * one, so "Up" matches "Up!" and "grown up" but not "update".
+ */
+public class TitleMatcher {
+
+	private static final int[] NONE = new int[0];
+
+	private final String[] titles;
+	// Per title: whether its first/last character has to be at a word boundary
+	private final boolean[] boundedStart;
+	private final boolean[] boundedEnd;
+	private final int[] lengths;
+
+	// Per state: the sorted characters of its transitions and their targets
+	private final char[][] labels;
+	private final int[][] targets;
+	private final int[] failure;
+	// Per state: the titles ending here, including those of its failure chain
+	private final int[][] outputs;
+
+	public TitleMatcher(String... titles) {
+		this.titles = titles.clone();
+		this.boundedStart = new boolean[titles.length];
+		this.boundedEnd = new boolean[titles.length];
+		this.lengths = new int[titles.length];
+
+		// Build the trie of the folded titles
+		List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		List<List<Integer>> ends = new ArrayList<List<Integer>>();
+		trie.add(new TreeMap<Character, Integer>());
+		ends.add(new ArrayList<Integer>(0));
+		for (int t = 0; t < titles.length; t++) {
+			String title = titles[t];
+			lengths[t] = title.length();
+			if (title.isEmpty()) {
+				continue;
+			}
+			boundedStart[t] = Character.isLetterOrDigit(title.charAt(0));
+			boundedEnd[t] = Character.isLetterOrDigit(title.charAt(title.length() - 1));
+			int state = 0;
+			for (int i = 0; i < title.length(); i++) {
+				Character c = fold(title.charAt(i));
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.get(state).put(c, next);
+					trie.add(new TreeMap<Character, Integer>());
+					ends.add(new ArrayList<Integer>(0));
+				}
+				state = next;
+			}
+			ends.get(state).add(t);
+		}
+
+		int states = trie.size();
+		labels = new char[states][];
+		targets = new int[states][];
+		failure = new int[states];
+		outputs = new int[states][];
+		for (int s = 0; s < states; s++) {
+			TreeMap<Character, Integer> edges = trie.get(s);
+			labels[s] = new char[edges.size()];
+			targets[s] = new int[edges.size()];
+			int i = 0;
+			for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+				labels[s][i] = edge.getKey();
+				targets[s][i] = edge.getValue();
+				i++;
+			}
+		}
+
+		// Failure links breadth first, so the link of a parent is known
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		outputs[0] = toArray(ends.get(0));
+		for (int child : targets[0]) {
+			failure[child] = 0;
+			outputs[child] = toArray(ends.get(child));
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int s = queue.poll();
+			for (int i = 0; i < labels[s].length; i++) {
+				char c = labels[s][i];
+				int child = targets[s][i];
+				int f = failure[s];
+				int next;
+				while ((next = next(f, c)) < 0 && f != 0) {
+					f = failure[f];
+				}
+				failure[child] = next < 0 ? 0 : next;
+				outputs[child] = concat(toArray(ends.get(child)), outputs[failure[child]]);
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * @return the titles found in the text, each once, in the order they were
+	 *         first found
+	 */
+	public List<String> match(CharSequence text) {
+		List<String> found = null;
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = fold(text.charAt(i));
+			int next;
+			while ((next = next(state, c)) < 0 && state != 0) {
+				state = failure[state];
+			}
+			state = next < 0 ? 0 : next;
+			for (int t : outputs[state]) {
+				if (matchesWords(text, t, i + 1 - lengths[t], i + 1)) {
+					if (found == null) {
+						found = new ArrayList<String>(2);
+					}
+					if (!found.contains(titles[t])) {
+						found.add(titles[t]);
+					}
+				}
+			}
+		}
+		return found == null ? Collections.<String> emptyList() : found;
+	}
+
+	private boolean matchesWords(CharSequence text, int title, int start, int end) {
+		if (boundedStart[title] && start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) {
+			return false;
+		}
+		if (boundedEnd[title] && end < text.length() && Character.isLetterOrDigit(text.charAt(end))) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the state reached from a state with a character, or -1
+	 */
+	private int next(int state, char c) {
+		int i = Arrays.binarySearch(labels[state], c);
+		return i < 0 ? -1 : targets[state][i];
+	}
+
+	private static char fold(char c) {
+		return Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		if (list.isEmpty()) {
+			return NONE;
+		}
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = list.get(i);
+		}
+		return array;
+	}
+
+	private static int[] concat(int[] a, int[] b) {
+		if (b.length == 0) {
+			return a;
+		}
+		if (a.length == 0) {
+			return b;
+		}
+		int[] both = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, both, a.length, b.length);
+		return both;
+	}
+}
@@ -3,24 +3,23 @@ package twitter;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.ArrayUtils;
 
-import twitter4j.FilterQuery;
 import twitter4j.StallWarning;
 import twitter4j.Status;
 import twitter4j.StatusDeletionNotice;
 import twitter4j.StatusListener;
-import twitter4j.TwitterStream;
 
 public abstract class TweetListener implements StatusListener {
 	protected final Lock lock = new ReentrantLock();
 	protected final Condition done = lock.newCondition();
 	protected int limit;
-	protected TwitterStream ts;
+	protected TweetSource ts;
 	protected HashSet<String> keywordSet;
 	protected String[] rawKeywords;
 	protected List<String[]> blocks;
@@ -29,6 +28,9 @@ public abstract class TweetListener implements StatusListener {
 	protected int perBlock;
 	protected boolean ignoreUntagged;
 	protected TweetStream tweetStream;
+	protected boolean finished;
+	protected final AtomicLong received = new AtomicLong();
+	protected final AtomicLong saved = new AtomicLong();
 
 	public TweetListener(int limit, String... keywords) {
 		int blockSize = 50;
@@ -53,25 +55,76 @@ public abstract class TweetListener implements StatusListener {
 
 	public abstract void onTweet(Status status);
 
-	public void start(TwitterStream ts) {
-		this.ts = ts;
-		filter();
+	public void start(TweetSource ts) {
 		lock.lock();
 		try {
-			done.await();
+			this.ts = ts;
+			// Stopped before the stream was opened
+			if (finished) {
+				return;
+			}
+			filter();
+			while (!finished) {
+				done.await();
+			}
 		} catch (InterruptedException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+		} finally {
+			lock.unlock();
+			// Reaching the limit only pauses the source, close it for good
+			ts.shutdown();
 		}
-		lock.unlock();
+	}
+
+	/**
+	 * Stop listening and let {@link #start(TweetSource)} return.
+	 */
+	public void stop() {
+		TweetSource stream;
+		lock.lock();
+		try {
+			finished = true;
+			done.signalAll();
+			stream = ts;
+		} finally {
+			lock.unlock();
+		}
+		if (stream != null) {
+			stream.shutdown();
+		}
+	}
+
+	private void finish() {
+		lock.lock();
+		try {
+			finished = true;
+			done.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of tweets received from the stream
+	 */
+	public long getReceived() {
+		return received.get();
+	}
+
+	/**
+	 * @return the number of tweets matched to a movie and saved
+	 */
+	public long getSaved() {
+		return saved.get();
 	}
 
 	public void filter() {
 		System.err.println("\nWorking on Block: " + ArrayUtils.toString(blocks.get(currentBlock)));
-		FilterQuery filterQuery = new FilterQuery(0, null, blocks.get(currentBlock));
-		this.ts.filter(filterQuery);
+		this.ts.filter(blocks.get(currentBlock));
 	}
 
 	public void onStatus(Status status) {
+		received.incrementAndGet();
 		if(ignoreUntagged && status.getGeoLocation() == null)
 			return;
 		else
@@ -84,9 +137,7 @@ public abstract class TweetListener implements StatusListener {
 				filter();
 			} else {
 				ts.cleanUp();
-				lock.lock();
-				done.signal();
-				lock.unlock();
+				finish();
 			}
 		}
 	}
@@ -103,7 +154,7 @@ public abstract class TweetListener implements StatusListener {
 
 	public void onException(Exception ex) {
 		ex.printStackTrace();
-		ts.shutdown();
+		stop();
 	}
 
 	public void onScrubGeo(long arg0, long arg1) {
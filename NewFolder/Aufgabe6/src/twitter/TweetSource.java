@@ -0,0 +1,37 @@
+package twitter;
+
+import twitter4j.Status;
+
+/**
+ * Where a {@link TweetListener} gets its tweets from: the live Twitter stream
+ * ({@link TweetStream}) or a recording ({@link FileReplaySource}). A source
+ * calls the listener's onStatus for every tweet matching the current filter.
+ */
+public interface TweetSource {
+
+	/**
+	 * Deliver tweets to the listener until it has enough or is stopped.
+	 */
+	void listenToStream(TweetListener listener);
+
+	/**
+	 * Deliver only tweets tracking the given keywords from now on.
+	 */
+	void filter(String[] track);
+
+	/**
+	 * Stop delivering tweets until the next {@link #filter(String[])}.
+	 */
+	void cleanUp();
+
+	/**
+	 * Stop delivering tweets for good.
+	 */
+	void shutdown();
+
+	/**
+	 * @return the JSON of a tweet delivered by this source, or null if
+	 *         twitter4j registered it (see {@code jsonStoreEnabled})
+	 */
+	String getRawJSON(Status status);
+}
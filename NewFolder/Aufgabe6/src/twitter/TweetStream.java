@@ -1,10 +1,15 @@
 package twitter;
+import twitter4j.FilterQuery;
+import twitter4j.Status;
 import twitter4j.TwitterStream;
 import twitter4j.TwitterStreamFactory;
 import twitter4j.conf.Configuration;
 import twitter4j.conf.ConfigurationBuilder;
 
-public class TweetStream {
+/**
+ * The live Twitter filter stream.
+ */
+public class TweetStream implements TweetSource {
 
 	private TwitterStream ts;
 
@@ -14,7 +19,24 @@ public class TweetStream {
 
 	public void listenToStream(TweetListener listener) {
 		ts.addListener(listener);
-		listener.start(ts);
+		listener.start(this);
+	}
+
+	public void filter(String[] track) {
+		ts.filter(new FilterQuery(0, null, track));
+	}
+
+	public void cleanUp() {
+		ts.cleanUp();
+	}
+
+	public void shutdown() {
+		ts.shutdown();
+	}
+
+	public String getRawJSON(Status status) {
+		// Registered in twitter4j's JSON store, where saveTweet looks it up
+		return null;
 	}
 	
 	public static Configuration getConfiguration() {
@@ -0,0 +1,176 @@
+package web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import logic.ImageCache;
+import logic.ImageVariants;
+import logic.MovieService;
+
+/**
+ * Serves GridFS images from the {@link ImageCache} with HTTP caching: the md5
+ * of the file is its ETag, so a browser revalidating a poster gets a 304, and
+ * single byte ranges are answered with 206 Partial Content.
+ *
+ * Images are cached by the browser for a week; the page reloads a changed
+ * image with a new query string. The sample image served for missing posters
+ * is only cached for a minute, so an upload shows up soon. With a
+ * {@code size} parameter, a smaller variant is served, see
+ * {@link ImageVariants}; until it is generated, the original is served with
+ * the same short lifetime.
+ */
+public class ImageHandler {
+
+	private static final String SAMPLE = "sample.png";
+	private static final int MAX_AGE = 7 * 24 * 60 * 60;
+	private static final int SAMPLE_MAX_AGE = 60;
+
+	private final MovieService ms;
+
+	public ImageHandler(MovieService ms) {
+		this.ms = ms;
+	}
+
+	/**
+	 * Write the image with the given name, or the sample image if there is
+	 * none.
+	 * 
+	 * @param size
+	 *            name of an {@link ImageVariants.Size}, or null for the
+	 *            original
+	 */
+	public void serve(String name, String size, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		ImageVariants.Size variant = ImageVariants.Size.parse(size);
+		ImageCache.Image image = name == null ? null : ms.getImage(name, variant);
+		String served = name;
+		int maxAge = MAX_AGE;
+		if (image == null) {
+			image = ms.getImage(SAMPLE, variant);
+			served = SAMPLE;
+			maxAge = SAMPLE_MAX_AGE;
+		}
+		// The sample image may not be uploaded yet
+		if (image == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		// The original stands in until the variant is generated, so the
+		// browser must not keep it under the variant's URL for long
+		if (variant != null && !ImageVariants.variantName(served, variant).equals(image.getName())) {
+			maxAge = SAMPLE_MAX_AGE;
+		}
+
+		String etag = "\"" + image.getMD5() + "\"";
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", "public, max-age=" + maxAge);
+		response.setHeader("Accept-Ranges", "bytes");
+		if (image.getUploadDate() != null) {
+			response.setDateHeader("Last-Modified", image.getUploadDate().getTime());
+		}
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		long length = image.getLength();
+		long start = 0;
+		long end = length - 1;
+		String range = request.getHeader("Range");
+		String ifRange = request.getHeader("If-Range");
+		if (range != null && (ifRange == null || ifRange.equals(etag))) {
+			long[] bounds = parseRange(range, length);
+			if (bounds == null) {
+				response.setHeader("Content-Range", "bytes */" + length);
+				response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+			if (bounds.length == 2) {
+				start = bounds[0];
+				end = bounds[1];
+				response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+				response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+			}
+		}
+		if (start == 0 && end == length - 1) {
+			response.setStatus(HttpServletResponse.SC_OK);
+		}
+		response.setContentType(image.getContentType());
+		response.setHeader("Content-Length", Long.toString(end - start + 1));
+
+		OutputStream out = response.getOutputStream();
+		if (image.getBytes() != null) {
+			out.write(image.getBytes(), (int) start, (int) (end - start + 1));
+		} else {
+			try (InputStream in = image.getInputStream()) {
+				copy(in, out, start, end - start + 1);
+			}
+		}
+	}
+
+	/**
+	 * Parse a Range header with a single range.
+	 *
+	 * @return {start, end}, an empty array to send the whole content (several
+	 *         or malformed ranges) or null if the range is not satisfiable
+	 */
+	static long[] parseRange(String header, long length) {
+		if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+			return new long[0];
+		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return new long[0];
+		}
+		try {
+			long start;
+			long end;
+			if (dash == 0) {
+				// Suffix: the last n bytes
+				long suffix = Long.parseLong(spec.substring(1));
+				if (suffix == 0) {
+					return null;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else {
+				start = Long.parseLong(spec.substring(0, dash));
+				end = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec
+						.substring(dash + 1)));
+			}
+			if (start >= length) {
+				return null;
+			}
+			if (start > end) {
+				// Invalid, so ignored
+				return new long[0];
+			}
+			return new long[] { start, end };
+		} catch (NumberFormatException e) {
+			return new long[0];
+		}
+	}
+
+	private static void copy(InputStream in, OutputStream out, long skip, long length) throws IOException {
+		while (skip > 0) {
+			long skipped = in.skip(skip);
+			if (skipped <= 0) {
+				return;
+			}
+			skip -= skipped;
+		}
+		byte[] buffer = new byte[8192];
+		while (length > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+			if (read < 0) {
+				return;
+			}
+			out.write(buffer, 0, read);
+			length -= read;
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package web;
+
+import com.mongodb.DBCallback;
+import com.mongodb.DBCollection;
+import com.mongodb.DBDecoder;
+import com.mongodb.DBDecoderFactory;
+import com.mongodb.DBObject;
+import com.mongodb.DefaultDBDecoder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import org.bson.BSONCallback;
+import org.bson.BSONObject;
+import org.bson.io.Bits;
+
+/**
+ * Decodes query results straight from BSON into JSON text, without building a
+ * BasicDBObject first. Set it on a cursor with
+ * {@link com.mongodb.DBCursor#setDecoderFactory(DBDecoderFactory)}; the
+ * cursor then returns {@link JsonDocument}s whose toString() is the JSON.
+ *
+ * The output has the same shape as {@link com.mongodb.util.JSON#serialize}
+ * ({@code $oid}, {@code $date}), only without the blanks. Documents with
+ * types that have no such simple form (binary, regex, code, timestamp,
+ * min/max key) and error replies ({@code $err}) are decoded as usual instead.
+ * The read and write buffers are reused per thread.
+ */
+public class JsonDecoder implements DBDecoder {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Per-thread buffers.
+	 */
+	private static class State {
+		byte[] buffer = new byte[16 * 1024];
+		final StringBuilder out = new StringBuilder(16 * 1024);
+		final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+		State() {
+			dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		}
+	}
+
+	private static final ThreadLocal<State> STATE = new ThreadLocal<State>() {
+		@Override
+		protected State initialValue() {
+			return new State();
+		}
+	};
+
+	/**
+	 * Thrown internally for types that are left to the default decoder.
+	 */
+	private static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super(null, null, false, false);
+		}
+	}
+
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	/**
+	 * A document already encoded as JSON. It has no fields of its own.
+	 */
+	public static class JsonDocument implements DBObject {
+		private final String json;
+
+		JsonDocument(String json) {
+			this.json = json;
+		}
+
+		@Override
+		public String toString() {
+			return json;
+		}
+
+		@Override
+		public void markAsPartialObject() {
+		}
+
+		@Override
+		public boolean isPartialObject() {
+			return true;
+		}
+
+		@Override
+		public Object put(String key, Object v) {
+			throw new UnsupportedOperationException("JSON documents are read-only");
+		}
+
+		@Override
+		public void putAll(BSONObject o) {
+			throw new UnsupportedOperationException("JSON documents are read-only");
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public void putAll(Map m) {
+			throw new UnsupportedOperationException("JSON documents are read-only");
+		}
+
+		@Override
+		public Object get(String key) {
+			return null;
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public Map toMap() {
+			return Collections.emptyMap();
+		}
+
+		@Override
+		public Object removeField(String key) {
+			return null;
+		}
+
+		@Override
+		@Deprecated
+		public boolean containsKey(String s) {
+			return false;
+		}
+
+		@Override
+		public boolean containsField(String s) {
+			return false;
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return Collections.emptySet();
+		}
+	}
+
+	/**
+	 * @param keysWanted
+	 *            the projection of the query, e.g. {@code {"user.name": 1}};
+	 *            only included fields are written. Null or an exclusion
+	 *            writes every field.
+	 */
+	public static DBDecoderFactory factory(DBObject keysWanted) {
+		final Map<String, Object> fields = fields(keysWanted);
+		return new DBDecoderFactory() {
+			@Override
+			public DBDecoder create() {
+				return new JsonDecoder(fields);
+			}
+		};
+	}
+
+	/**
+	 * Turn a projection into a tree: a field maps to null if it is included as
+	 * a whole, else to the tree of its included sub-fields.
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> fields(DBObject keysWanted) {
+		if (keysWanted == null || keysWanted.keySet().isEmpty()) {
+			return null;
+		}
+		Map<String, Object> root = new HashMap<String, Object>();
+		boolean withId = true;
+		for (String key : keysWanted.keySet()) {
+			Object value = keysWanted.get(key);
+			boolean included = !(value instanceof Number && ((Number) value).intValue() == 0)
+					&& !Boolean.FALSE.equals(value);
+			if (key.equals("_id")) {
+				withId = included;
+				continue;
+			}
+			if (!included) {
+				return null;
+			}
+			Map<String, Object> node = root;
+			String[] path = key.split("\\.");
+			for (int i = 0; i < path.length; i++) {
+				if (i == path.length - 1) {
+					node.put(path[i], null);
+				} else if (node.containsKey(path[i]) && node.get(path[i]) == null) {
+					// Parent already included as a whole
+					break;
+				} else {
+					Map<String, Object> child = (Map<String, Object>) node.get(path[i]);
+					if (child == null) {
+						child = new HashMap<String, Object>();
+						node.put(path[i], child);
+					}
+					node = child;
+				}
+			}
+		}
+		if (root.isEmpty() && !withId) {
+			// Only {_id: 0}: an exclusion, MongoDB already leaves out the _id
+			return null;
+		}
+		if (withId) {
+			root.put("_id", null);
+		}
+		return root;
+	}
+
+	private final Map<String, Object> fields;
+	private final DefaultDBDecoder fallback = new DefaultDBDecoder();
+
+	JsonDecoder(Map<String, Object> fields) {
+		this.fields = fields;
+	}
+
+	@Override
+	public DBObject decode(InputStream in, DBCollection collection) throws IOException {
+		State state = STATE.get();
+		readFully(in, state.buffer, 0, 4);
+		int length = Bits.readInt(state.buffer);
+		if (state.buffer.length < length) {
+			byte[] grown = new byte[Math.max(length, state.buffer.length * 2)];
+			System.arraycopy(state.buffer, 0, grown, 0, 4);
+			state.buffer = grown;
+		}
+		readFully(in, state.buffer, 4, length - 4);
+		return decode(state, state.buffer, length, collection);
+	}
+
+	// Bits.readFully(InputStream, byte[], int, int) of this driver version
+	// rejects buffers larger than needed
+	private static void readFully(InputStream in, byte[] b, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read = in.read(b, offset, length);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			offset += read;
+			length -= read;
+		}
+	}
+
+	@Override
+	public DBObject decode(byte[] bytes, DBCollection collection) {
+		return decode(STATE.get(), bytes, Bits.readInt(bytes), collection);
+	}
+
+	private DBObject decode(State state, byte[] bytes, int length, DBCollection collection) {
+		StringBuilder out = state.out;
+		out.setLength(0);
+		try {
+			// Error replies are inspected by the driver
+			if (length > 5 && bytes[4] == 0x02 && startsWith(bytes, 5, "$err")) {
+				throw UNSUPPORTED;
+			}
+			writeDocument(state, bytes, 4, false, fields);
+			return new JsonDocument(out.toString());
+		} catch (Unsupported e) {
+			return fallback.decode(Arrays.copyOf(bytes, length), collection);
+		} finally {
+			if (out.capacity() > 1024 * 1024) {
+				// Do not keep a buffer of an exceptionally large document
+				out.setLength(0);
+				out.trimToSize();
+			}
+		}
+	}
+
+	/**
+	 * @return the position after the document
+	 */
+	@SuppressWarnings("unchecked")
+	private static int writeDocument(State state, byte[] b, int pos, boolean array, Map<String, Object> fields)
+			throws Unsupported {
+		StringBuilder out = state.out;
+		out.append(array ? '[' : '{');
+		boolean first = true;
+		while (true) {
+			byte type = b[pos++];
+			if (type == 0) {
+				break;
+			}
+			int nameEnd = pos;
+			while (b[nameEnd] != 0) {
+				nameEnd++;
+			}
+			String name = new String(b, pos, nameEnd - pos, UTF8);
+			pos = nameEnd + 1;
+			boolean skip = false;
+			Map<String, Object> subFields = null;
+			if (fields != null && !array) {
+				skip = !fields.containsKey(name);
+				subFields = (Map<String, Object>) fields.get(name);
+			} else if (fields != null) {
+				// Array elements share the projection of the array
+				subFields = fields;
+			}
+			if (skip) {
+				pos = skip(b, pos, type);
+				continue;
+			}
+			if (!first) {
+				out.append(',');
+			}
+			first = false;
+			if (!array) {
+				writeString(out, name);
+				out.append(':');
+			}
+			pos = writeValue(state, b, pos, type, subFields);
+		}
+		out.append(array ? ']' : '}');
+		return pos;
+	}
+
+	private static int writeValue(State state, byte[] b, int pos, byte type, Map<String, Object> fields)
+			throws Unsupported {
+		StringBuilder out = state.out;
+		switch (type) {
+		case 0x01:
+			out.append(Double.longBitsToDouble(Bits.readLong(b, pos)));
+			return pos + 8;
+		case 0x02:
+		case 0x0E:
+			int length = Bits.readInt(b, pos);
+			writeString(out, new String(b, pos + 4, length - 1, UTF8));
+			return pos + 4 + length;
+		case 0x03:
+			return writeDocument(state, b, pos + 4, false, fields);
+		case 0x04:
+			return writeDocument(state, b, pos + 4, true, fields);
+		case 0x06:
+		case 0x0A:
+			out.append("null");
+			return pos;
+		case 0x07:
+			out.append("{\"$oid\":\"");
+			for (int i = 0; i < 12; i++) {
+				out.append(HEX[(b[pos + i] >> 4) & 0xf]).append(HEX[b[pos + i] & 0xf]);
+			}
+			out.append("\"}");
+			return pos + 12;
+		case 0x08:
+			out.append(b[pos] != 0);
+			return pos + 1;
+		case 0x09:
+			out.append("{\"$date\":\"").append(state.dateFormat.format(new Date(Bits.readLong(b, pos))))
+					.append("\"}");
+			return pos + 8;
+		case 0x10:
+			out.append(Bits.readInt(b, pos));
+			return pos + 4;
+		case 0x12:
+			out.append(Bits.readLong(b, pos));
+			return pos + 8;
+		default:
+			throw UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * @return the position after a value that is not written
+	 */
+	private static int skip(byte[] b, int pos, byte type) throws Unsupported {
+		switch (type) {
+		case 0x01:
+		case 0x09:
+		case 0x11:
+		case 0x12:
+			return pos + 8;
+		case 0x02:
+		case 0x0D:
+		case 0x0E:
+			return pos + 4 + Bits.readInt(b, pos);
+		case 0x03:
+		case 0x04:
+		case 0x0F:
+			return pos + Bits.readInt(b, pos);
+		case 0x05:
+			return pos + 5 + Bits.readInt(b, pos);
+		case 0x06:
+		case 0x0A:
+		case 0x7F:
+		case (byte) 0xFF:
+			return pos;
+		case 0x07:
+			return pos + 12;
+		case 0x08:
+			return pos + 1;
+		case 0x10:
+			return pos + 4;
+		default:
+			// Regular expressions and the deprecated types
+			throw UNSUPPORTED;
+		}
+	}
+
+	private static void writeString(StringBuilder out, String s) {
+		out.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xf]);
+				} else {
+					out.append(c);
+				}
+			}
+		}
+		out.append('"');
+	}
+
+	private static boolean startsWith(byte[] b, int pos, String ascii) {
+		for (int i = 0; i < ascii.length(); i++) {
+			if (b[pos + i] != ascii.charAt(i)) {
+				return false;
+			}
+		}
+		return b[pos + ascii.length()] == 0;
+	}
+
+	@Override
+	public DBCallback getDBCallback(DBCollection collection) {
+		return fallback.getDBCallback(collection);
+	}
+
+	@Override
+	public BSONObject readObject(byte[] bytes) {
+		return fallback.readObject(bytes);
+	}
+
+	@Override
+	public BSONObject readObject(InputStream in) throws IOException {
+		return fallback.readObject(in);
+	}
+
+	@Override
+	public int decode(byte[] bytes, BSONCallback callback) {
+		return fallback.decode(bytes, callback);
+	}
+
+	@Override
+	public int decode(InputStream in, BSONCallback callback) throws IOException {
+		return fallback.decode(in, callback);
+	}
+}
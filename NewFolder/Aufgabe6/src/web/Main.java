@@ -2,6 +2,8 @@ package web;
 
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import logic.MovieService;
+import logic.TweetWriter;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
 
@@ -13,11 +15,25 @@ public class Main {
         Injector injector = Guice.createInjector(new MongoModule(), new RestServerModule());
 
         // Resolve server instance
-        Server server = injector.getInstance(Server.class);
+        final Server server = injector.getInstance(Server.class);
 
         // Resolve server handler
         server.setHandler(injector.getInstance(Handler.class));
 
+        // On shutdown stop taking requests, then write the buffered tweets
+        final TweetWriter writer = injector.getInstance(MovieService.class).getTweetWriter();
+        Runtime.getRuntime().addShutdownHook(new Thread("shutdown") {
+            @Override
+            public void run() {
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                writer.close();
+            }
+        });
+
         // Start server
         server.start();
         server.join();
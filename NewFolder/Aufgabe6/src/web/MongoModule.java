@@ -3,14 +3,21 @@ package web;
 import com.google.inject.AbstractModule;
 import com.google.inject.BindingAnnotation;
 import com.google.inject.Provides;
+import com.google.inject.Singleton;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.WriteConcern;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.management.ManagementFactory;
 import java.net.UnknownHostException;
 import java.util.Set;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 
 public class MongoModule extends AbstractModule {
@@ -20,20 +27,60 @@ public class MongoModule extends AbstractModule {
         bindConstant().annotatedWith(DatabaseName.class).to("imdb");
     }
 
+    /**
+     * One client, and with it one connection pool, per process. The pool is
+     * configured with the system properties {@code mongo.host},
+     * {@code mongo.connectionsPerHost}, {@code mongo.waitQueueMultiplier},
+     * {@code mongo.maxWaitTime}, {@code mongo.connectTimeout},
+     * {@code mongo.socketTimeout} and {@code mongo.writeConcern}.
+     */
     @Provides
-    public DB provideDatabase(@DatabaseName String databaseName) throws UnknownHostException {
+    @Singleton
+    public MongoClient provideMongoClient() throws UnknownHostException {
+        MongoClientOptions options = MongoClientOptions.builder()
+                .connectionsPerHost(Integer.getInteger("mongo.connectionsPerHost", 100))
+                .threadsAllowedToBlockForConnectionMultiplier(Integer.getInteger("mongo.waitQueueMultiplier", 5))
+                .maxWaitTime(Integer.getInteger("mongo.maxWaitTime", 2000))
+                .connectTimeout(Integer.getInteger("mongo.connectTimeout", 5000))
+                .socketTimeout(Integer.getInteger("mongo.socketTimeout", 30000))
+                .socketKeepAlive(true)
+                .writeConcern(WriteConcern.valueOf(System.getProperty("mongo.writeConcern", "ACKNOWLEDGED")))
+                .build();
         // Connect to local machine.
-        MongoClient mongo = new MongoClient("127.0.0.1");
-        // Select database `imdb`.
-        DB db = mongo.getDB(databaseName);
+        MongoClient mongo = new MongoClient(System.getProperty("mongo.host", "127.0.0.1"), options);
         // Enable Full Text Search.
         enableTextSearch(mongo);
+        registerPoolMetrics(mongo);
+
+        return mongo;
+    }
+
+    @Provides
+    @Singleton
+    public DB provideDatabase(MongoClient mongo, @DatabaseName String databaseName) {
+        // Select database `imdb`.
+        DB db = mongo.getDB(databaseName);
         // Print out all collections.
         printCollections(db);
 
         return db;
     }
 
+    /**
+     * Publishes the pool utilisation via JMX.
+     */
+    private void registerPoolMetrics(MongoClient mongo) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("web:type=MongoPool");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MongoPool(mongo), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register pool metrics: " + e.getMessage());
+        }
+    }
+
     /**
      * Output all Collections known to the database.
      */
@@ -0,0 +1,65 @@
+package web;
+
+import com.mongodb.DBPortPool;
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+
+/**
+ * Reads the statistics of the connection pool of a {@link MongoClient}.
+ * The driver does not record how long threads waited for a connection, so
+ * only the configured limits and the current utilisation are available.
+ */
+public class MongoPool implements MongoPoolMXBean {
+
+    private final MongoClient mongo;
+    private final MongoClientOptions options;
+
+    public MongoPool(MongoClient mongo) {
+        this.mongo = mongo;
+        this.options = mongo.getMongoClientOptions();
+    }
+
+    private DBPortPool pool() {
+        return mongo.getConnector().getDBPortPool(mongo.getAddress());
+    }
+
+    @Override
+    public String getHost() {
+        return mongo.getAddress().toString();
+    }
+
+    @Override
+    public int getMaxSize() {
+        return options.getConnectionsPerHost();
+    }
+
+    @Override
+    public int getMaxWaitQueue() {
+        return options.getConnectionsPerHost() * options.getThreadsAllowedToBlockForConnectionMultiplier();
+    }
+
+    @Override
+    public int getMaxWaitTime() {
+        return options.getMaxWaitTime();
+    }
+
+    @Override
+    public int getTotal() {
+        return pool().getTotal();
+    }
+
+    @Override
+    public int getInUse() {
+        return pool().getInUse();
+    }
+
+    @Override
+    public int getAvailable() {
+        return pool().getAvailable();
+    }
+
+    @Override
+    public double getUtilisation() {
+        return (double) getInUse() / getMaxSize();
+    }
+}
@@ -0,0 +1,29 @@
+package web;
+
+/**
+ * Utilisation of the shared MongoDB connection pool, published via JMX as
+ * {@code web:type=MongoPool}.
+ */
+public interface MongoPoolMXBean {
+
+    String getHost();
+
+    /** Configured maximum number of connections. */
+    int getMaxSize();
+
+    /** Maximum number of threads that may wait for a connection. */
+    int getMaxWaitQueue();
+
+    /** Maximum time in ms a thread waits for a connection. */
+    int getMaxWaitTime();
+
+    /** Connections opened so far. */
+    int getTotal();
+
+    int getInUse();
+
+    int getAvailable();
+
+    /** Connections in use relative to the maximum, 0 to 1. */
+    double getUtilisation();
+}
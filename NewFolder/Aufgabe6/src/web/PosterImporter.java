@@ -0,0 +1,208 @@
+package web;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+
+/**
+ * Downloads posters for the image import with one shared, asynchronous
+ * {@link HttpClient}. No request thread waits for a download:
+ * {@link #fetch(String, Callback)} returns at once and the callback runs when
+ * the download is done. Callbacks run on a pool of their own
+ * ({@code posters.callbackThreads}, default 4), so they may block, e.g. to
+ * store the poster, without holding up the threads of the client.
+ *
+ * Concurrent imports of the same URL share one download. At most
+ * {@code posters.maxPerHost} (default 4) downloads run against the same host;
+ * further ones wait in a queue. Every download is limited to
+ * {@code posters.timeoutMillis} (default 10 s) and
+ * {@code posters.maxBytes} (default 5 MB).
+ */
+public class PosterImporter {
+
+	/**
+	 * Receives the result of a download.
+	 */
+	public interface Callback {
+		/**
+		 * @param content
+		 *            the downloaded bytes, null if the download failed
+		 * @param contentType
+		 *            the Content-Type of the response
+		 * @param failure
+		 *            the reason the download failed, null on success
+		 */
+		void completed(byte[] content, String contentType, Throwable failure);
+	}
+
+	/**
+	 * A download and everyone waiting for it.
+	 */
+	private static class Download {
+		final String url;
+		final String host;
+		final List<Callback> callbacks = new ArrayList<Callback>();
+
+		Download(String url, String host) {
+			this.url = url;
+			this.host = host;
+		}
+	}
+
+	private static class Host {
+		int active;
+		final Queue<Download> waiting = new ArrayDeque<Download>();
+	}
+
+	private final HttpClient client;
+	private final int maxPerHost;
+	private final long timeoutMillis;
+	private final int maxBytes;
+	private final ExecutorService callbackPool = Executors.newFixedThreadPool(
+			Integer.getInteger("posters.callbackThreads", 4), new ThreadFactory() {
+				private final AtomicInteger threads = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "poster-callback-" + threads.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	// Guarded by this
+	private final Map<String, Download> downloads = new HashMap<String, Download>();
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	public PosterImporter() {
+		this(Integer.getInteger("posters.maxPerHost", 4), Long.getLong("posters.timeoutMillis", 10000), Integer
+				.getInteger("posters.maxBytes", 5 << 20));
+	}
+
+	public PosterImporter(int maxPerHost, long timeoutMillis, int maxBytes) {
+		this.maxPerHost = maxPerHost;
+		this.timeoutMillis = timeoutMillis;
+		this.maxBytes = maxBytes;
+		client = new HttpClient();
+		client.setConnectTimeout(timeoutMillis);
+		client.setIdleTimeout(timeoutMillis);
+		client.setFollowRedirects(true);
+		client.setMaxConnectionsPerDestination(maxPerHost);
+		try {
+			client.start();
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not start HTTP client", e);
+		}
+	}
+
+	/**
+	 * Start downloading the URL, or join a running download of it.
+	 */
+	public void fetch(String url, Callback callback) {
+		String host;
+		try {
+			URI uri = URI.create(url);
+			if (uri.getHost() == null || !("http".equals(uri.getScheme()) || "https".equals(uri.getScheme()))) {
+				throw new IllegalArgumentException("Not an HTTP URL: " + url);
+			}
+			host = uri.getHost().toLowerCase();
+		} catch (IllegalArgumentException e) {
+			callback.completed(null, null, e);
+			return;
+		}
+
+		Download start = null;
+		synchronized (this) {
+			Download download = downloads.get(url);
+			if (download != null) {
+				download.callbacks.add(callback);
+				return;
+			}
+			download = new Download(url, host);
+			download.callbacks.add(callback);
+			downloads.put(url, download);
+			Host state = hosts.get(host);
+			if (state == null) {
+				state = new Host();
+				hosts.put(host, state);
+			}
+			if (state.active < maxPerHost) {
+				state.active++;
+				start = download;
+			} else {
+				state.waiting.add(download);
+			}
+		}
+		if (start != null) {
+			send(start);
+		}
+	}
+
+	private void send(final Download download) {
+		client.newRequest(download.url).timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+				.send(new BufferingResponseListener(maxBytes) {
+					@Override
+					public void onComplete(Result result) {
+						Throwable failure = result.getFailure();
+						if (failure == null && result.getResponse().getStatus() != 200) {
+							failure = new IllegalStateException(download.url + " answered "
+									+ result.getResponse().getStatus());
+						}
+						String contentType = result.getResponse() == null ? null : result.getResponse()
+								.getHeaders().get("Content-Type");
+						completed(download, failure == null ? getContent() : null, contentType, failure);
+					}
+				});
+	}
+
+	private void completed(Download download, final byte[] content, final String contentType,
+			final Throwable failure) {
+		final List<Callback> callbacks;
+		Download next;
+		synchronized (this) {
+			downloads.remove(download.url);
+			callbacks = download.callbacks;
+			Host state = hosts.get(download.host);
+			next = state.waiting.poll();
+			if (next == null) {
+				state.active--;
+				if (state.active == 0) {
+					hosts.remove(download.host);
+				}
+			}
+		}
+		// The slot of this download goes to the next one of the host
+		if (next != null) {
+			send(next);
+		}
+		callbackPool.execute(new Runnable() {
+			@Override
+			public void run() {
+				for (Callback callback : callbacks) {
+					try {
+						callback.completed(content, contentType, failure);
+					} catch (RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+
+	public void stop() throws Exception {
+		client.stop();
+		callbackPool.shutdown();
+	}
+}
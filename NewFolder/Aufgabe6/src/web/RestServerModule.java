@@ -4,22 +4,32 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
-import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.DBObject;
 import com.mongodb.util.JSON;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import logic.MovieService;
+import logic.NotReadyException;
+import logic.TweetFeed;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileItemFactory;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.ContentResponse;
+import org.bson.types.ObjectId;
 import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.NCSARequestLog;
 import org.eclipse.jetty.server.Request;
@@ -31,11 +41,13 @@ import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
 import org.eclipse.jetty.server.handler.ResourceHandler;
 import org.eclipse.jetty.util.resource.Resource;
-import twitter.MovieTweetHandler;
-import twitter.TweetStream;
+import twitter.IngestionManager;
 
 public class RestServerModule extends AbstractModule {
 
+	/** Most tweets replayed to a reconnecting live feed client */
+	private static final int MAX_REPLAY = Integer.getInteger("sse.maxReplay", 10000);
+
 	@Override
 	protected void configure() {
 	}
@@ -52,13 +64,27 @@ public class RestServerModule extends AbstractModule {
 
 	@Provides
 	public Handler provideHandler(final MovieService ms) {
-		// Serve static files
+		// Serve static files: the page and its stylesheet from memory,
+		// anything else from the classpath
+		StaticAssets assets = new StaticAssets("/web", "map.html", "map.html", "style.css");
 		ResourceHandler resource_handler = new ResourceHandler();
 		resource_handler.setDirectoriesListed(true);
 		resource_handler.setWelcomeFiles(new String[] { "map.html" });
 		resource_handler.setBaseResource(Resource.newClassPathResource("/web"));
 
 		// Define Resources and Actions
+		ContextHandler ready = handle("/ready", new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+					throws IOException, ServletException {
+				response.setContentType("application/json;charset=utf-8");
+				response.setStatus(ms.getWarmUp().isReady() ? HttpServletResponse.SC_OK
+						: HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				baseRequest.setHandled(true);
+				response.getWriter().print(JSON.serialize(ms.getWarmUp().status()));
+			}
+		});
+
 		ContextHandler tweetedMovies = handle("/movie_tweets", new MongoHandler() {
 			@Override
 			public Object getData(HttpServletRequest request) {
@@ -66,15 +92,129 @@ public class RestServerModule extends AbstractModule {
 				String limitParam = request.getParameter("limit");
 				if (limitParam != null)
 					limit = Integer.parseInt(limitParam);
+				// Only tweets newer than the client's newest one
+				String since = request.getParameter("since");
+				if (since != null && ObjectId.isValid(since))
+					return ms.getTaggedTweetsSince(new ObjectId(since), limit);
 				return ms.getTaggedTweets().limit(limit);
 			}
 		});
 
+		ContextHandler liveTweets = handle("/live_tweets", new AbstractHandler() {
+			@Override
+			public void handle(String target, final Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException, ServletException {
+				// Server-Sent Events: one event per geotagged tweet, the _id is
+				// the event id, so a reconnecting EventSource resumes with
+				// Last-Event-ID
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentType("text/event-stream;charset=utf-8");
+				response.setHeader("Cache-Control", "no-cache");
+				baseRequest.setHandled(true);
+				final AsyncContext async = request.startAsync();
+				async.setTimeout(0);
+				final PrintWriter writer = response.getWriter();
+				// Tweets sent by the replay, live deliveries skip them
+				final Set<Object> replayed = new HashSet<Object>();
+
+				// Subscribe before reading the missed tweets: a tweet is
+				// published once it is stored, so none falls in between. The
+				// writer lock holds back live deliveries until the replay is out.
+				synchronized (writer) {
+					ms.getTweetFeed().subscribe(new TweetFeed.Listener() {
+						@Override
+						public boolean deliver(List<DBObject> tweets) {
+							synchronized (writer) {
+								if (tweets.isEmpty())
+									writer.print(": heartbeat\n\n");
+								List<DBObject> fresh = new ArrayList<DBObject>(tweets.size());
+								for (DBObject tweet : tweets) {
+									if (!replayed.contains(tweet.get("_id")))
+										fresh.add(tweet);
+								}
+								writeEvents(writer, fresh);
+								writer.flush();
+								if (writer.checkError()) {
+									async.complete();
+									return false;
+								}
+								return true;
+							}
+						}
+
+						@Override
+						public void timedOut() {
+							// Fails the blocked write, which then completes
+							baseRequest.getHttpChannel().getEndPoint().close();
+						}
+					});
+
+					String since = request.getHeader("Last-Event-ID");
+					if (since == null)
+						since = request.getParameter("since");
+					if (since != null && ObjectId.isValid(since)) {
+						// Page through the missed tweets up to the live ones. If
+						// there are too many, a "gap" event names the last one sent
+						// instead of silently skipping the rest.
+						ObjectId last = new ObjectId(since);
+						while (true) {
+							List<DBObject> missed = ms.getTaggedTweetsSince(last, TweetFeed.BUFFER_SIZE).toArray();
+							if (replayed.size() + missed.size() > MAX_REPLAY) {
+								writer.print("event: gap\ndata: " + JSON.serialize(new BasicDBObject("after", last))
+										+ "\n\n");
+								break;
+							}
+							for (DBObject tweet : missed)
+								replayed.add(tweet.get("_id"));
+							writeEvents(writer, missed);
+							writer.flush();
+							if (missed.size() < TweetFeed.BUFFER_SIZE)
+								break;
+							last = (ObjectId) missed.get(missed.size() - 1).get("_id");
+						}
+					}
+					writer.flush();
+				}
+			}
+		});
+
+		ContextHandler clusters = handle("/clusters", new MongoHandler() {
+			@Override
+			public Object getData(HttpServletRequest request) {
+				// bbox=west,south,east,north as in the map bounds, the whole
+				// world if missing
+				double[] bbox = { -180, -90, 180, 90 };
+				String bboxParam = request.getParameter("bbox");
+				if (bboxParam != null) {
+					String[] parts = bboxParam.split(",");
+					if (parts.length != bbox.length)
+						throw new BadRequestException("bbox needs west,south,east,north");
+					try {
+						for (int i = 0; i < bbox.length; i++)
+							bbox[i] = Double.parseDouble(parts[i].trim());
+					} catch (NumberFormatException e) {
+						throw new BadRequestException("bbox is no list of numbers: " + bboxParam);
+					}
+					for (double value : bbox)
+						if (Double.isNaN(value) || Double.isInfinite(value))
+							throw new BadRequestException("bbox is no list of numbers: " + bboxParam);
+				}
+				String zoomParam = request.getParameter("zoom");
+				int zoom;
+				try {
+					zoom = zoomParam == null ? 0 : Integer.parseInt(zoomParam);
+				} catch (NumberFormatException e) {
+					throw new BadRequestException("zoom is no number: " + zoomParam);
+				}
+				return ms.getTweetClusters(bbox[0], bbox[1], bbox[2], bbox[3], zoom);
+			}
+		});
+
 		ContextHandler searchSuggestions = handle("/suggestions", new MongoHandler() {
 			@Override
 			public Object getData(HttpServletRequest request) {
 				String query = request.getParameter("query");
-				return MovieService.extract(ms.suggest(query, 8), "title");
+				return ms.suggestTitles(query == null ? "" : query, 8);
 			}
 		});
 
@@ -91,10 +231,31 @@ public class RestServerModule extends AbstractModule {
 			}
 		});
 
+		final IngestionManager ingestion = new IngestionManager(ms);
+		ContextHandler streamStatus = handle("/stream/status", new MongoHandler() {
+			@Override
+			public Object getData(HttpServletRequest request) {
+				return ingestion.status();
+			}
+		});
+
+		ContextHandler streamCancel = handle("/stream/cancel", new MongoHandler() {
+			@Override
+			public Object getData(HttpServletRequest request) {
+				if (request.getMethod().equals("POST")) {
+					int id = Integer.parseInt(request.getParameter("id"));
+					return new BasicDBObject("ok", ingestion.cancel(id));
+				}
+				return new BasicDBObject("ok", false);
+			}
+		});
+
 		ContextHandler stream = handle("/stream", new MongoHandler() {
 			@Override
 			public Object getData(HttpServletRequest request) {
 				if (request.getMethod().equals("POST")) {
+					// Seeding the movie data would delete the streamed tweets
+					ms.getWarmUp().require(MovieService.MOVIE_DATA);
 					final Integer limit = Integer.valueOf(request.getParameter("limit"));
 					String onlyTagged = request.getParameter("tagged");
 					final boolean tagged;
@@ -109,17 +270,13 @@ public class RestServerModule extends AbstractModule {
 					} else {
 						titles = keywords.split(",");
 					}
-					final String[] titlesFinal = titles;
-					// Run asynchronously in order not to get blocked.
-					Thread thread = new Thread() {
-						public void run() {
-							TweetStream ts = new TweetStream();
-							MovieTweetHandler handler = new MovieTweetHandler(ms, limit, titlesFinal);
-							handler.setIgnoreUntagged(tagged);
-							ts.listenToStream(handler);
-						}
-					};
-					thread.start();
+					// Run as a managed job in order not to get blocked.
+					try {
+						return new BasicDBObject("ok", true).append("job", ingestion.submit(limit, titles, tagged));
+					} catch (IngestionManager.RefusedException e) {
+						return new BasicDBObject("ok", false).append("error", e.getMessage())
+								.append("duplicateOf", e.getDuplicateOf());
+					}
 				}
 				return new BasicDBObject("ok", true);
 			}
@@ -155,9 +312,11 @@ public class RestServerModule extends AbstractModule {
 					else if (type.equals("genre"))
 						return ms.getByGenre(query, limit);
 					else if (type.equals("geo"))
-						return ms.getByTweetsKeywordRegex(query, limit);
+						return ms.getByTweetsKeyword(query, limit);
 					else if (type.equals("tweeted"))
 						return ms.getTweetedMovies().limit(limit);
+					else if (type.equals("fuzzy"))
+						return ms.searchFuzzy(query, limit);
 					else
 						return ms.searchByPrefix(query, limit);
 				}
@@ -177,7 +336,10 @@ public class RestServerModule extends AbstractModule {
 				if (type.equals("geo"))
 					return ms.getGeotaggedTweets(limit);
 				else if (type.equals("fts")) {
-					return ms.searchTweets(query);
+					String offset = request.getParameter("offset");
+					int skip = offset == null ? 0 : Integer.parseInt(offset);
+					skip = skip < 0 ? 0 : skip > 10000 ? 10000 : skip;
+					return ms.searchTweets(query, skip, limit);
 				} else if (type.equals("near")) {
 					String[] parts = query.split(",");
 					return ms.getTweetsNear(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
@@ -187,6 +349,8 @@ public class RestServerModule extends AbstractModule {
 			}
 		});
 
+		final ImageHandler imageHandler = new ImageHandler(ms);
+		final PosterImporter posterImporter = new PosterImporter();
 		ContextHandler images = handle("/images", new AbstractHandler() {
 			@Override
 			public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
@@ -194,32 +358,51 @@ public class RestServerModule extends AbstractModule {
 				try {
 					String name = request.getParameter("name");
 					String url = request.getParameter("url");
-					System.out.println(request.getMethod());
 					if (request.getMethod().equals("GET")) {
-						//Serve from Gridfs
+						//Serve from Gridfs, through the image cache
 						if (url == null) {
-							GridFSDBFile file = ms.getFile(name);
-
-							if (file == null) {
-								file = ms.getFile("sample.png");
-							}
-
-							response.setStatus(HttpServletResponse.SC_OK);
-							response.setContentLength((int) file.getLength());
-							response.setContentType(file.getContentType());
-							file.writeTo(response.getOutputStream());
+							imageHandler.serve(name, request.getParameter("size"), request, response);
 							baseRequest.setHandled(true);
 							return;
 						}
-						//Import from IMDB
+						//Import from IMDB, without blocking this thread
 						else {
-							HttpClient client = new HttpClient();
-							client.start();
-							ContentResponse r = client.GET(url);
-							byte[] content = r.getContent();
-							String contentType = r.getHeaders().get("Content-Type");
-							InputStream stream = new ByteArrayInputStream(content);
-							ms.saveFile(name, stream, contentType);
+							final String posterName = name;
+							final AsyncContext async = request.startAsync();
+							async.setTimeout(0);
+							baseRequest.setHandled(true);
+							posterImporter.fetch(url, new PosterImporter.Callback() {
+								@Override
+								public void completed(byte[] content, String contentType, Throwable failure) {
+									HttpServletResponse asyncResponse = (HttpServletResponse) async.getResponse();
+									try {
+										if (failure == null && (contentType == null || !contentType.startsWith("image/")))
+											failure = new IllegalStateException("Not an image: " + contentType);
+										if (failure != null) {
+											asyncResponse.sendError(HttpServletResponse.SC_BAD_GATEWAY, failure.getMessage());
+											return;
+										}
+										ms.saveFile(posterName, new ByteArrayInputStream(content), contentType);
+										asyncResponse.setContentType("application/json;charset=utf-8");
+										asyncResponse.setStatus(HttpServletResponse.SC_OK);
+										asyncResponse.getWriter().print(JSON.serialize(new BasicDBObject("name", posterName)));
+									} catch (IOException e) {
+										e.printStackTrace();
+									} catch (RuntimeException e) {
+										// e.g. GridFS could not store the poster
+										e.printStackTrace();
+										try {
+											if (!asyncResponse.isCommitted())
+												asyncResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+														"Could not save " + posterName + ": " + e.getMessage());
+										} catch (IOException ignored) {
+										}
+									} finally {
+										async.complete();
+									}
+								}
+							});
+							return;
 						}
 					}
 					//Upload to GridFS
@@ -259,13 +442,20 @@ public class RestServerModule extends AbstractModule {
 
 		// Register all Resources
 		HandlerList handlers = new HandlerList();
-		handlers.setHandlers(new Handler[]{logging, tweetedMovies, stream, comment, movieSearch, images,
-				searchSuggestions, tweetSearch,
-				resource_handler, new DefaultHandler()});
+		handlers.setHandlers(new Handler[]{logging, ready, tweetedMovies, liveTweets, clusters, streamStatus, streamCancel,
+				stream, comment, movieSearch, images, searchSuggestions, tweetSearch,
+				assets, resource_handler, new DefaultHandler()});
 
 		return handlers;
 	}
 
+	private static void writeEvents(PrintWriter writer, List<DBObject> tweets) {
+		for (DBObject tweet : tweets) {
+			writer.print("id: " + tweet.get("_id") + "\n");
+			writer.print("data: " + JSON.serialize(tweet) + "\n\n");
+		}
+	}
+
 	/**
 	 * Define a new resource
 	 *
@@ -288,15 +478,117 @@ public class RestServerModule extends AbstractModule {
 	/**
 	 * An implementation of the Jetty handler. Override the abstract getData()
 	 * method and return data that can be parsed as JSON.
+	 * 
+	 * A DBCursor is not serialized as a whole but streamed: documents are
+	 * written as they arrive from MongoDB (in batches of
+	 * {@code rest.batchSize}) and the response is flushed every batch, i.e.
+	 * sent chunked. At most {@code rest.maxResults} documents are written; if
+	 * there are more, the array ends with the element
+	 * <code>{"truncated" : <i>maxResults</i>}</code> instead. The documents are
+	 * not counted up front, so the first ones are sent right away.
+	 * The documents are decoded from BSON directly into JSON by the
+	 * {@link JsonDecoder}.
 	 */
 	public abstract static class MongoHandler extends AbstractHandler {
 
+		/**
+		 * Thrown by getData() for invalid parameters, answered with 400 and
+		 * the message.
+		 */
+		public static class BadRequestException extends RuntimeException {
+			private static final long serialVersionUID = 1L;
+
+			public BadRequestException(String message) {
+				super(message);
+			}
+		}
+
+		private static final int BATCH_SIZE = Integer.getInteger("rest.batchSize", 500);
+		private static final int MAX_RESULTS = Integer.getInteger("rest.maxResults", 10000);
+
 		public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
 				throws IOException, ServletException {
 			response.setContentType("application/json;charset=utf-8");
-			response.setStatus(HttpServletResponse.SC_OK);
 			baseRequest.setHandled(true);
-			response.getWriter().print(JSON.serialize(getData(request)));
+			Object data;
+			try {
+				data = getData(request);
+			} catch (NotReadyException e) {
+				// Data is still being loaded or indexed: let the client retry
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				response.setHeader("Retry-After", "5");
+				response.getWriter().print(JSON.serialize(new BasicDBObject("ok", false).append("waitingFor", e.getTask())));
+				return;
+			} catch (BadRequestException e) {
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+				response.getWriter().print(JSON.serialize(new BasicDBObject("ok", false).append("error", e.getMessage())));
+				return;
+			}
+			response.setStatus(HttpServletResponse.SC_OK);
+			PrintWriter writer = openWriter(request, response);
+			try {
+				if (data instanceof DBCursor) {
+					writeCursor((DBCursor) data, writer);
+				} else {
+					writer.print(JSON.serialize(data));
+				}
+			} finally {
+				writer.close();
+			}
+		}
+
+		/**
+		 * @return a writer that compresses with gzip or deflate if the client
+		 *         accepts it. Flushing the writer flushes the compressor, so
+		 *         streamed responses still arrive in chunks.
+		 */
+		private static PrintWriter openWriter(HttpServletRequest request, HttpServletResponse response)
+				throws IOException {
+			response.setHeader("Vary", "Accept-Encoding");
+			OutputStream out;
+			if (StaticAssets.acceptsGzip(request)) {
+				response.setHeader("Content-Encoding", "gzip");
+				out = new GZIPOutputStream(response.getOutputStream(), 8192, true);
+			} else if (StaticAssets.accepts(request.getHeader("Accept-Encoding"), "deflate")) {
+				response.setHeader("Content-Encoding", "deflate");
+				// Its own Deflater, so close() releases the native memory
+				out = new DeflaterOutputStream(response.getOutputStream(), true);
+			} else {
+				return response.getWriter();
+			}
+			return new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		}
+
+		private static void writeCursor(DBCursor cursor, PrintWriter writer) {
+			cursor.batchSize(BATCH_SIZE);
+			cursor.setDecoderFactory(JsonDecoder.factory(cursor.getKeysWanted()));
+			int written = 0;
+			try {
+				writer.print('[');
+				while (written < MAX_RESULTS && cursor.hasNext()) {
+					if (written > 0) {
+						writer.print(',');
+					}
+					DBObject doc = cursor.next();
+					writer.print(doc instanceof JsonDecoder.JsonDocument ? doc.toString() : JSON.serialize(doc));
+					if (++written % BATCH_SIZE == 0) {
+						writer.flush();
+						if (writer.checkError()) {
+							// Client went away
+							return;
+						}
+					}
+				}
+				// Only known once the cap is reached: one more document is
+				// read instead of counting them all before the first is sent
+				if (written == MAX_RESULTS && cursor.hasNext()) {
+					writer.print(',');
+					writer.print(JSON.serialize(new BasicDBObject("truncated", MAX_RESULTS)));
+				}
+				writer.print(']');
+			} finally {
+				cursor.close();
+			}
 		}
 
 		abstract public Object getData(HttpServletRequest request);
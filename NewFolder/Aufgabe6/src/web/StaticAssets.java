@@ -0,0 +1,184 @@
+package web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Serves a fixed set of static files from memory. The files are read from the
+ * classpath once, gzipped once and get an ETag from their content, so a
+ * request costs no I/O and no compression, and a browser revalidating its
+ * copy gets a 304 without a body.
+ *
+ * HTML is revalidated on every load (it refers to the other assets), all
+ * other files may be cached for {@value #MAX_AGE} seconds. Requests for other
+ * paths are left to the next handler.
+ */
+public class StaticAssets extends AbstractHandler {
+
+	private static final int MAX_AGE = 24 * 60 * 60;
+
+	private static class Asset {
+		final byte[] plain;
+		final byte[] gzipped;
+		final String contentType;
+		final String etag;
+		// The gzipped body is another representation, so it needs its own tag
+		final String gzippedEtag;
+		final String cacheControl;
+
+		Asset(byte[] plain, String contentType) throws IOException {
+			this.plain = plain;
+			this.contentType = contentType;
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(plain.length / 2);
+			GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+			gzip.write(plain);
+			gzip.close();
+			this.gzipped = bytes.toByteArray();
+			String md5 = md5(plain);
+			this.etag = "\"" + md5 + "\"";
+			this.gzippedEtag = "\"" + md5 + "-gz\"";
+			this.cacheControl = contentType.startsWith("text/html") ? "no-cache" : "public, max-age=" + MAX_AGE;
+		}
+	}
+
+	private final Map<String, Asset> assets = new HashMap<String, Asset>();
+
+	/**
+	 * @param base
+	 *            classpath directory of the files, e.g. "/web"
+	 * @param welcomeFile
+	 *            file served for "/"
+	 * @param files
+	 *            names of the files relative to base
+	 */
+	public StaticAssets(String base, String welcomeFile, String... files) {
+		for (String file : files) {
+			try (InputStream in = StaticAssets.class.getResourceAsStream(base + "/" + file)) {
+				if (in == null) {
+					System.err.println("Static file " + base + "/" + file + " not found");
+					continue;
+				}
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					bytes.write(buffer, 0, read);
+				}
+				assets.put("/" + file, new Asset(bytes.toByteArray(), contentType(file)));
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not read " + base + "/" + file, e);
+			}
+		}
+		if (assets.containsKey("/" + welcomeFile)) {
+			assets.put("/", assets.get("/" + welcomeFile));
+		}
+	}
+
+	@Override
+	public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response)
+			throws IOException, ServletException {
+		Asset asset = assets.get(target);
+		if (asset == null || !(request.getMethod().equals("GET") || request.getMethod().equals("HEAD"))) {
+			return;
+		}
+		baseRequest.setHandled(true);
+		boolean gzip = acceptsGzip(request);
+		String etag = gzip ? asset.gzippedEtag : asset.etag;
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", asset.cacheControl);
+		response.setHeader("Vary", "Accept-Encoding");
+		if (matches(request.getHeader("If-None-Match"), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] body = asset.plain;
+		if (gzip) {
+			body = asset.gzipped;
+			response.setHeader("Content-Encoding", "gzip");
+		}
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType(asset.contentType);
+		response.setContentLength(body.length);
+		if (request.getMethod().equals("GET")) {
+			response.getOutputStream().write(body);
+		}
+	}
+
+	/**
+	 * @return true if the client accepts gzip with a quality above 0
+	 */
+	static boolean acceptsGzip(HttpServletRequest request) {
+		return accepts(request.getHeader("Accept-Encoding"), "gzip");
+	}
+
+	static boolean accepts(String acceptEncoding, String coding) {
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String part : acceptEncoding.split(",")) {
+			String[] params = part.trim().split(";");
+			if (params[0].trim().equalsIgnoreCase(coding)) {
+				for (int i = 1; i < params.length; i++) {
+					String param = params[i].trim();
+					if (param.startsWith("q=")) {
+						try {
+							return Double.parseDouble(param.substring(2)) > 0;
+						} catch (NumberFormatException e) {
+							return false;
+						}
+					}
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String contentType(String file) {
+		if (file.endsWith(".html")) {
+			return "text/html;charset=utf-8";
+		} else if (file.endsWith(".css")) {
+			return "text/css;charset=utf-8";
+		} else if (file.endsWith(".js")) {
+			return "application/javascript;charset=utf-8";
+		} else if (file.endsWith(".png")) {
+			return "image/png";
+		}
+		return "application/octet-stream";
+	}
+
+	private static String md5(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+			return String.format("%032x", new BigInteger(1, digest));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the {@link PosterImporter} against a local server whose responses are
+ * held back until the test releases them.
+ */
+public class PosterImporterTest {
+
+	private static final byte[] POSTER = { (byte) 0x89, 'P', 'N', 'G' };
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private Server server;
+	private PosterImporter importer;
+	private String base;
+
+	/**
+	 * Collects the results of the callbacks.
+	 */
+	private static class Results implements PosterImporter.Callback {
+		final CountDownLatch done;
+		final List<byte[]> contents = new ArrayList<byte[]>();
+		final List<Throwable> failures = new ArrayList<Throwable>();
+
+		Results(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		@Override
+		public synchronized void completed(byte[] content, String contentType, Throwable failure) {
+			contents.add(content);
+			failures.add(failure);
+			done.countDown();
+		}
+	}
+
+	@Before
+	public void startServer() throws Exception {
+		server = new Server(0);
+		server.setHandler(new AbstractHandler() {
+			@Override
+			public void handle(String target, Request baseRequest, HttpServletRequest request,
+					HttpServletResponse response) throws IOException, ServletException {
+				requests.incrementAndGet();
+				int now = active.incrementAndGet();
+				while (true) {
+					int max = maxActive.get();
+					if (now <= max || maxActive.compareAndSet(max, now)) {
+						break;
+					}
+				}
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					active.decrementAndGet();
+				}
+				response.setContentType("image/png");
+				response.getOutputStream().write(POSTER);
+				baseRequest.setHandled(true);
+			}
+		});
+		server.start();
+		base = "http://localhost:" + ((NetworkConnector) server.getConnectors()[0]).getLocalPort();
+		importer = new PosterImporter(2, 10000, 1 << 20);
+	}
+
+	@After
+	public void stopServer() throws Exception {
+		release.countDown();
+		importer.stop();
+		server.stop();
+	}
+
+	@Test
+	public void concurrentImportsOfOneUrlShareTheDownload() throws Exception {
+		Results results = new Results(3);
+		for (int i = 0; i < 3; i++) {
+			importer.fetch(base + "/poster.png", results);
+		}
+		awaitRequests(1);
+		release.countDown();
+
+		assertTrue(results.done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, requests.get());
+		for (int i = 0; i < 3; i++) {
+			assertNull(results.failures.get(i));
+			assertArrayEquals(POSTER, results.contents.get(i));
+		}
+	}
+
+	@Test
+	public void downloadsFromOneHostAreCapped() throws Exception {
+		Results results = new Results(5);
+		for (int i = 0; i < 5; i++) {
+			importer.fetch(base + "/poster" + i + ".png", results);
+		}
+		awaitRequests(2);
+		// Give queued downloads the chance to overtake the cap
+		Thread.sleep(200);
+		assertEquals(2, requests.get());
+		release.countDown();
+
+		assertTrue(results.done.await(10, TimeUnit.SECONDS));
+		assertEquals(5, requests.get());
+		assertEquals(2, maxActive.get());
+		for (Throwable failure : results.failures) {
+			assertNull(failure);
+		}
+	}
+
+	@Test
+	public void invalidUrlsFailWithoutARequest() throws Exception {
+		Results results = new Results(1);
+		importer.fetch("ftp://localhost/poster.png", results);
+
+		assertTrue(results.done.await(10, TimeUnit.SECONDS));
+		assertNull(results.contents.get(0));
+		assertTrue(results.failures.get(0) instanceof IllegalArgumentException);
+		assertEquals(0, requests.get());
+	}
+
+	private void awaitRequests(int expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (requests.get() < expected && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(expected, requests.get());
+	}
+}
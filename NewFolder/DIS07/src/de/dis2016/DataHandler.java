@@ -0,0 +1,142 @@
+package de.dis2016;
+
+import com.google.inject.Inject;
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+import de.dis2016.entities.Article;
+import de.dis2016.entities.Shop;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Optional;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Serves the dashboard data: all shops and articles and the amount sold per shop, month and article of a year.
+ */
+public class DataHandler extends AbstractHandler {
+
+    private final SessionFactory sessionFactory;
+    private final DimensionCache dimensions;
+    private final Metrics metrics;
+
+    @Inject
+    public DataHandler(SessionFactory sessionFactory, DimensionCache dimensions, Metrics metrics) {
+        this.sessionFactory = sessionFactory;
+        this.dimensions = dimensions;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(String s, Request baseRequest, HttpServletRequest request, HttpServletResponse
+            response) throws IOException, ServletException {
+        // Get year param
+        Optional<String> yearStr = optParam(request, "year");
+        Optional<Integer> optYear = yearStr.flatMap(str -> Optional.of(Integer.parseInt(str)));
+
+        BasicDBObject data = query(optYear.orElse(2013));
+
+        long stage = System.nanoTime();
+        String json = JSON.serialize(data);
+        metrics.timer("data.serialize").stop(stage);
+
+        response.setContentType("application/json;charset=utf-8");
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+        response.getWriter().print(json);
+
+        metrics.count("data.response_chars", json.length());
+    }
+
+    /**
+     * Assembles the dashboard payload of a year.
+     */
+    public BasicDBObject query(int year) {
+        BasicDBObject data = new BasicDBObject();
+        data.put("year", year);
+
+        // Load shops.
+        long stage = System.nanoTime();
+        BasicDBObject shops = new BasicDBObject();
+        for (Shop shop : dimensions.getShops().values()) {
+            shops.put(String.valueOf(shop.getShopId()), shop.getCityName());
+        }
+        data.put("shops", shops);
+        metrics.timer("data.shops").stop(stage);
+
+        // Load articles.
+        stage = System.nanoTime();
+        BasicDBObject articles = new BasicDBObject();
+        for (Article article : dimensions.getArticles().values()) {
+            articles.put(String.valueOf(article.getArticleId()), article.getArticle());
+        }
+        data.put("articles", articles);
+        metrics.timer("data.articles").stop(stage);
+
+        // Load values.
+        stage = System.nanoTime();
+        Session session = sessionFactory.openSession();
+        metrics.timer("data.session").stop(stage);
+        try {
+            session.doWork(connection -> {
+                BasicDBObject values = new BasicDBObject();
+                PreparedStatement statement = connection.prepareStatement("SELECT SHOPID, MONTH, ARTICLEID, SUM(AMOUNT) AS VALUE\n" +
+                        "FROM STAR\n" +
+                        "WHERE YEAR=?\n" +
+                        "GROUP BY SHOPID, MONTH, ARTICLEID");
+                statement.setInt(1, year);
+
+                long queryStart = System.nanoTime();
+                final ResultSet resultSet = statement.executeQuery();
+                metrics.timer("jdbc.star_group_by.execute").stop(queryStart);
+
+                long rows = 0;
+                queryStart = System.nanoTime();
+                while (resultSet.next()) {
+                    rows++;
+                    String shop = resultSet.getString("shopid");
+                    String article = resultSet.getString("articleid");
+                    String month = resultSet.getString("month");
+                    String value = resultSet.getString("value");
+
+                    BasicDBObject shopValues = nestAYolo(values, shop);
+                    BasicDBObject monthValues = nestAYolo(shopValues, month);
+                    monthValues.put(article, value);
+
+                    data.put("values", values);
+                }
+                metrics.timer("data.assemble").stop(queryStart);
+                metrics.count("data.rows", rows);
+            });
+        } finally {
+            session.close();
+        }
+
+        return data;
+    }
+
+    /**
+     * Returns the child object stored under key, creating it if necessary.
+     */
+    public static BasicDBObject nestAYolo(BasicDBObject parent, String key) {
+        if (parent.get(key) == null) {
+            parent.put(key, new BasicDBObject());
+        }
+
+        return (BasicDBObject) parent.get(key);
+    }
+
+    private Optional<String> optParam(HttpServletRequest request, String paramName) {
+        if (request.getParameter(paramName) != null) {
+            return Optional.of(request.getParameter(paramName));
+        }
+
+        return Optional.empty();
+    }
+}
@@ -30,14 +30,16 @@ public class DataWarehouseModule extends AbstractModule {
     }
 
     /**
-     * Provides the Hibernate session factory.
+     * Provides the Hibernate session factory. The system property {@code dis.profile} selects an alternative
+     * configuration, e.g. {@code embedded} reads {@code hibernate-embedded.cfg.xml}.
      */
     @Provides
     @Singleton
     SessionFactory provideSessionFactory() {
         try {
             Configuration configuration = new Configuration();
-            configuration.configure();
+            String profile = System.getProperty("dis.profile");
+            configuration.configure(profile == null ? "/hibernate.cfg.xml" : "/hibernate-" + profile + ".cfg.xml");
 
             Properties properties = configuration.getProperties();
             ServiceRegistry serviceRegistry = new ServiceRegistryBuilder().applySettings(properties).buildServiceRegistry();
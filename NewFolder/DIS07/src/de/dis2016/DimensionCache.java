@@ -0,0 +1,101 @@
+package de.dis2016;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import de.dis2016.entities.Article;
+import de.dis2016.entities.Shop;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Keeps the current version of every shop and article in memory, so the dashboard does not have to list both
+ * dimension tables on every request. {@link DimensionSync} patches single entries when the source changes.
+ */
+@Singleton
+public class DimensionCache {
+
+    private final SessionFactory sessionFactory;
+    private final Metrics metrics;
+    private final Map<Integer, Shop> shops = new ConcurrentSkipListMap<>();
+    private final Map<Integer, Article> articles = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded;
+
+    @Inject
+    public DimensionCache(SessionFactory sessionFactory, Metrics metrics) {
+        this.sessionFactory = sessionFactory;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Current shops by shop id.
+     */
+    public Map<Integer, Shop> getShops() {
+        ensureLoaded();
+        return Collections.unmodifiableMap(shops);
+    }
+
+    /**
+     * Current articles by article id.
+     */
+    public Map<Integer, Article> getArticles() {
+        ensureLoaded();
+        return Collections.unmodifiableMap(articles);
+    }
+
+    /**
+     * Replaces the cached version of a single shop.
+     */
+    public void putShop(Shop shop) {
+        shops.put(shop.getShopId(), shop);
+    }
+
+    /**
+     * Replaces the cached version of a single article.
+     */
+    public void putArticle(Article article) {
+        articles.put(article.getArticleId(), article);
+    }
+
+    /**
+     * Drops all entries and reads both dimension tables again.
+     */
+    public synchronized void reload() {
+        long start = System.nanoTime();
+        Session session = sessionFactory.openSession();
+        try {
+            shops.clear();
+            for (Object shopObj : session.createCriteria(Shop.class).list()) {
+                Shop shop = (Shop) shopObj;
+                if (shop.isCurrentVersion()) {
+                    putShop(shop);
+                }
+            }
+
+            articles.clear();
+            for (Object articleObj : session.createCriteria(Article.class).list()) {
+                Article article = (Article) articleObj;
+                if (article.isCurrentVersion()) {
+                    putArticle(article);
+                }
+            }
+
+            loaded = true;
+        } finally {
+            session.close();
+        }
+        metrics.timer("jdbc.dimensions.reload").stop(start);
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) {
+                    reload();
+                }
+            }
+        }
+    }
+}
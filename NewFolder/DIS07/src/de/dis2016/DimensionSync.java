@@ -0,0 +1,382 @@
+package de.dis2016;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import de.dis2016.entities.Article;
+import de.dis2016.entities.Shop;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Detects changed shops and articles in {@code DB2INST1} and applies them to the warehouse without reloading it.
+ *
+ * Rows are compared by key using a hash over all of their attributes. Changed rows are either overwritten in place
+ * (type 1) or, if they moved within their hierarchy, stored as a new version next to the old one (type 2). Only the
+ * affected dimension rows, their facts in {@code STAR} and the entries of the {@link DimensionCache} are touched.
+ *
+ * Existing warehouses need the version columns first, see {@code resources/VSISP66_versions.sql}.
+ */
+public class DimensionSync {
+
+    /**
+     * How changes to the hierarchy of a dimension row are recorded.
+     */
+    public enum ScdType {
+        /**
+         * Overwrite every version of the row and all of its facts, history is lost.
+         */
+        TYPE_1,
+        /**
+         * Keep the old row as history and insert a new current version. Facts keep pointing at the old version.
+         * Changes that do not touch the hierarchy are still applied as type 1, but only to the current version and
+         * its facts.
+         */
+        TYPE_2
+    }
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final SessionFactory sessionFactory;
+    private final DimensionCache cache;
+    private final Metrics metrics;
+
+    @Inject
+    public DimensionSync(SessionFactory sessionFactory, DimensionCache cache, Metrics metrics) {
+        this.sessionFactory = sessionFactory;
+        this.cache = cache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Applies all changes of the source shop table.
+     *
+     * @return the number of inserted or changed shops
+     */
+    public int syncShops(ScdType type) {
+        long start = System.nanoTime();
+        int[] counts = new int[3];
+        List<Shop> changed = new ArrayList<>();
+
+        Session session = sessionFactory.openSession();
+        try {
+            Transaction tx = session.beginTransaction();
+            session.doWork(connection -> {
+                long stage = System.nanoTime();
+                Map<Integer, Shop> current = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT SHOPID, CITYID, REGIONID, " +
+                        "COUNTRYID, COUNTRYNAME AS COUNTRY, REGIONNAME AS REGION, CITYNAME AS CITY, SHOPNAME, " +
+                        "VERSION\nFROM VSISP66.SHOP WHERE CURRENTVERSION = 1");
+                     ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        Shop shop = SourceTables.readShop(result);
+                        shop.setVersion(result.getInt("VERSION"));
+                        current.put(shop.getShopId(), shop);
+                    }
+                }
+
+                List<Shop> inserts = new ArrayList<>();
+                List<Shop> overwrites = new ArrayList<>();
+                List<Shop> expired = new ArrayList<>();
+
+                try (PreparedStatement statement = connection.prepareStatement(SourceTables.SHOP_QUERY);
+                     ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        Shop shop = SourceTables.readShop(result);
+                        Shop old = current.get(shop.getShopId());
+
+                        if (old == null) {
+                            inserts.add(shop);
+                        } else if (!hash(old).equals(hash(shop))) {
+                            boolean moved = old.getCityId() != shop.getCityId()
+                                    || old.getRegionId() != shop.getRegionId()
+                                    || old.getCountryId() != shop.getCountryId();
+                            if (type == ScdType.TYPE_2 && moved) {
+                                shop.setVersion(old.getVersion() + 1);
+                                expired.add(old);
+                                inserts.add(shop);
+                            } else {
+                                shop.setVersion(old.getVersion());
+                                overwrites.add(shop);
+                            }
+                        }
+                    }
+                }
+
+                metrics.timer("jdbc.sync.shops.read").stop(stage);
+
+                stage = System.nanoTime();
+                expireShops(connection, expired);
+                insertShops(connection, inserts);
+                overwriteShops(connection, overwrites, type);
+                metrics.timer("jdbc.sync.shops.write").stop(stage);
+
+                counts[0] = inserts.size() - expired.size();
+                counts[1] = overwrites.size();
+                counts[2] = expired.size();
+
+                changed.addAll(inserts);
+                changed.addAll(overwrites);
+            });
+            tx.commit();
+        } finally {
+            session.close();
+        }
+        // Only committed rows, a failed sync leaves the cache as it was
+        changed.forEach(cache::putShop);
+
+        System.out.format("Shops: %d new, %d overwritten, %d versioned in %d ms%n", counts[0], counts[1], counts[2],
+                (System.nanoTime() - start) / 1000000);
+        return counts[0] + counts[1] + counts[2];
+    }
+
+    /**
+     * Applies all changes of the source article table.
+     *
+     * @return the number of inserted or changed articles
+     */
+    public int syncArticles(ScdType type) {
+        long start = System.nanoTime();
+        int[] counts = new int[3];
+        List<Article> changed = new ArrayList<>();
+
+        Session session = sessionFactory.openSession();
+        try {
+            Transaction tx = session.beginTransaction();
+            session.doWork(connection -> {
+                long stage = System.nanoTime();
+                Map<Integer, Article> current = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement("SELECT ARTICLEID, GROUPID, " +
+                        "FAMILYID, CATEGORYID, CATEGORY, FAMILY, \"GROUP\", ARTICLE, PRICE, VERSION\n" +
+                        "FROM VSISP66.ARTICLE WHERE CURRENTVERSION = 1");
+                     ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        Article article = SourceTables.readArticle(result);
+                        article.setVersion(result.getInt("VERSION"));
+                        current.put(article.getArticleId(), article);
+                    }
+                }
+
+                List<Article> inserts = new ArrayList<>();
+                List<Article> overwrites = new ArrayList<>();
+                List<Article> expired = new ArrayList<>();
+
+                try (PreparedStatement statement = connection.prepareStatement(SourceTables.ARTICLE_QUERY);
+                     ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        Article article = SourceTables.readArticle(result);
+                        Article old = current.get(article.getArticleId());
+
+                        if (old == null) {
+                            inserts.add(article);
+                        } else if (!hash(old).equals(hash(article))) {
+                            boolean regrouped = old.getGroupId() != article.getGroupId()
+                                    || old.getFamilyId() != article.getFamilyId()
+                                    || old.getCategoryId() != article.getCategoryId();
+                            if (type == ScdType.TYPE_2 && regrouped) {
+                                article.setVersion(old.getVersion() + 1);
+                                expired.add(old);
+                                inserts.add(article);
+                            } else {
+                                article.setVersion(old.getVersion());
+                                overwrites.add(article);
+                            }
+                        }
+                    }
+                }
+
+                metrics.timer("jdbc.sync.articles.read").stop(stage);
+
+                stage = System.nanoTime();
+                expireArticles(connection, expired);
+                insertArticles(connection, inserts);
+                overwriteArticles(connection, overwrites, type);
+                metrics.timer("jdbc.sync.articles.write").stop(stage);
+
+                counts[0] = inserts.size() - expired.size();
+                counts[1] = overwrites.size();
+                counts[2] = expired.size();
+
+                changed.addAll(inserts);
+                changed.addAll(overwrites);
+            });
+            tx.commit();
+        } finally {
+            session.close();
+        }
+        changed.forEach(cache::putArticle);
+
+        System.out.format("Articles: %d new, %d overwritten, %d versioned in %d ms%n", counts[0], counts[1],
+                counts[2], (System.nanoTime() - start) / 1000000);
+        return counts[0] + counts[1] + counts[2];
+    }
+
+    private void expireShops(Connection connection, List<Shop> shops) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE VSISP66.SHOP SET CURRENTVERSION = 0\n" +
+                "WHERE SHOPID = ? AND VERSION = ?")) {
+            for (Shop shop : shops) {
+                statement.setInt(1, shop.getShopId());
+                statement.setInt(2, shop.getVersion());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertShops(Connection connection, List<Shop> shops) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO VSISP66.SHOP (SHOPID, CITYID, " +
+                "REGIONID, COUNTRYID, COUNTRYNAME, REGIONNAME, CITYNAME, SHOPNAME, VERSION, CURRENTVERSION)\n" +
+                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 1)")) {
+            for (Shop shop : shops) {
+                statement.setInt(1, shop.getShopId());
+                statement.setInt(2, shop.getCityId());
+                statement.setInt(3, shop.getRegionId());
+                statement.setInt(4, shop.getCountryId());
+                statement.setString(5, shop.getCountryName());
+                statement.setString(6, shop.getRegionName());
+                statement.setString(7, shop.getCityName());
+                statement.setString(8, shop.getShopName());
+                statement.setInt(9, shop.getVersion());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Overwrites the shops and their facts. With type 1 every version of a shop is overwritten, so rows expired by an
+     * earlier type 2 sync and their facts do not keep the old attributes. With type 2 only the current version and its
+     * facts are, so facts of expired versions keep their hierarchy.
+     */
+    private void overwriteShops(Connection connection, List<Shop> shops, ScdType type) throws SQLException {
+        String columns = "CITYID = ?, REGIONID = ?, COUNTRYID = ?, COUNTRYNAME = ?, REGIONNAME = ?, CITYNAME = ?, " +
+                "SHOPNAME = ?\n";
+        boolean current = type == ScdType.TYPE_2;
+        try (PreparedStatement dimension = connection.prepareStatement("UPDATE VSISP66.SHOP SET " + columns +
+                "WHERE SHOPID = ?" + (current ? " AND VERSION = ?" : ""));
+             PreparedStatement facts = connection.prepareStatement("UPDATE VSISP66.STAR SET " + columns +
+                     "WHERE SHOPID = ?" + (current ? " AND SHOPVERSION = ?" : ""))) {
+            for (Shop shop : shops) {
+                for (PreparedStatement statement : new PreparedStatement[] { dimension, facts }) {
+                    statement.setInt(1, shop.getCityId());
+                    statement.setInt(2, shop.getRegionId());
+                    statement.setInt(3, shop.getCountryId());
+                    statement.setString(4, shop.getCountryName());
+                    statement.setString(5, shop.getRegionName());
+                    statement.setString(6, shop.getCityName());
+                    statement.setString(7, shop.getShopName());
+                    statement.setInt(8, shop.getShopId());
+                    if (current) {
+                        statement.setInt(9, shop.getVersion());
+                    }
+                    statement.addBatch();
+                }
+            }
+            dimension.executeBatch();
+            facts.executeBatch();
+        }
+    }
+
+    private void expireArticles(Connection connection, List<Article> articles) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("UPDATE VSISP66.ARTICLE SET " +
+                "CURRENTVERSION = 0\nWHERE ARTICLEID = ? AND VERSION = ?")) {
+            for (Article article : articles) {
+                statement.setInt(1, article.getArticleId());
+                statement.setInt(2, article.getVersion());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void insertArticles(Connection connection, List<Article> articles) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO VSISP66.ARTICLE (ARTICLEID, " +
+                "GROUPID, FAMILYID, CATEGORYID, CATEGORY, FAMILY, \"GROUP\", ARTICLE, PRICE, VERSION, " +
+                "CURRENTVERSION)\nVALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1)")) {
+            for (Article article : articles) {
+                statement.setInt(1, article.getArticleId());
+                statement.setInt(2, article.getGroupId());
+                statement.setInt(3, article.getFamilyId());
+                statement.setInt(4, article.getCategoryId());
+                statement.setString(5, article.getCategory());
+                statement.setString(6, article.getFamily());
+                statement.setString(7, article.getGroup());
+                statement.setString(8, article.getArticle());
+                statement.setDouble(9, article.getPrice());
+                statement.setInt(10, article.getVersion());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Overwrites the articles and their facts, see
+     * {@link #overwriteShops(Connection, List, ScdType)}.
+     */
+    private void overwriteArticles(Connection connection, List<Article> articles, ScdType type) throws SQLException {
+        String columns = "GROUPID = ?, FAMILYID = ?, CATEGORYID = ?, CATEGORY = ?, FAMILY = ?, \"GROUP\" = ?, " +
+                "ARTICLE = ?, PRICE = ?\n";
+        boolean current = type == ScdType.TYPE_2;
+        try (PreparedStatement dimension = connection.prepareStatement("UPDATE VSISP66.ARTICLE SET " + columns +
+                "WHERE ARTICLEID = ?" + (current ? " AND VERSION = ?" : ""));
+             PreparedStatement facts = connection.prepareStatement("UPDATE VSISP66.STAR SET " + columns +
+                     "WHERE ARTICLEID = ?" + (current ? " AND ARTICLEVERSION = ?" : ""))) {
+            for (Article article : articles) {
+                for (PreparedStatement statement : new PreparedStatement[] { dimension, facts }) {
+                    statement.setInt(1, article.getGroupId());
+                    statement.setInt(2, article.getFamilyId());
+                    statement.setInt(3, article.getCategoryId());
+                    statement.setString(4, article.getCategory());
+                    statement.setString(5, article.getFamily());
+                    statement.setString(6, article.getGroup());
+                    statement.setString(7, article.getArticle());
+                    statement.setDouble(8, article.getPrice());
+                    statement.setInt(9, article.getArticleId());
+                    if (current) {
+                        statement.setInt(10, article.getVersion());
+                    }
+                    statement.addBatch();
+                }
+            }
+            dimension.executeBatch();
+            facts.executeBatch();
+        }
+    }
+
+    private static HashCode hash(Shop shop) {
+        return HASH.newHasher()
+                .putInt(shop.getCityId())
+                .putInt(shop.getRegionId())
+                .putInt(shop.getCountryId())
+                .putString(String.valueOf(shop.getCountryName()), Charsets.UTF_8)
+                .putString(String.valueOf(shop.getRegionName()), Charsets.UTF_8)
+                .putString(String.valueOf(shop.getCityName()), Charsets.UTF_8)
+                .putString(String.valueOf(shop.getShopName()), Charsets.UTF_8)
+                .hash();
+    }
+
+    private static HashCode hash(Article article) {
+        return HASH.newHasher()
+                .putInt(article.getGroupId())
+                .putInt(article.getFamilyId())
+                .putInt(article.getCategoryId())
+                .putString(String.valueOf(article.getCategory()), Charsets.UTF_8)
+                .putString(String.valueOf(article.getFamily()), Charsets.UTF_8)
+                .putString(String.valueOf(article.getGroup()), Charsets.UTF_8)
+                .putString(String.valueOf(article.getArticle()), Charsets.UTF_8)
+                .putFloat((float) article.getPrice())
+                .hash();
+    }
+}
@@ -0,0 +1,296 @@
+package de.dis2016;
+
+import com.google.inject.Inject;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+/**
+ * Streams a slice of the sales cube as CSV or in a columnar binary format.
+ *
+ * The slice is given by the parameters {@code groupBy}, a comma separated list of {@link Level levels}, and one
+ * optional filter per level, e.g. {@code /export?groupBy=shop,day,article&year=2014&country=1,2&format=csv}.
+ * Grouping by month also groups by year, and by day also by month and year, since days and months are only numbered
+ * within their month and year. Every group yields its ids and the summed amount and turnover. Rows are written while
+ * the result set is read and flushed every {@value #CHUNK_ROWS} rows, so the response is sent chunked and memory stays
+ * bounded.
+ *
+ * The binary format is big endian: the magic {@code DISC}, the version, the number of level columns and their names,
+ * then chunks of at most {@value #CHUNK_ROWS} rows, each starting with its row count followed by one {@code int}
+ * array per level, a {@code long} array of amounts and a {@code double} array of turnovers. A chunk of 0 rows ends
+ * the stream.
+ */
+public class ExportHandler extends AbstractHandler {
+
+    private static final int CHUNK_ROWS = 4096;
+    private static final int FETCH_SIZE = 1000;
+    private static final int BINARY_VERSION = 1;
+
+    /**
+     * The levels a slice can be grouped and filtered by.
+     */
+    public enum Level {
+        YEAR("YEAR"),
+        MONTH("MONTH", YEAR),
+        DAY("DAY", MONTH),
+        COUNTRY("COUNTRYID"),
+        REGION("REGIONID"),
+        CITY("CITYID"),
+        SHOP("SHOPID"),
+        CATEGORY("CATEGORYID"),
+        FAMILY("FAMILYID"),
+        GROUP("GROUPID"),
+        ARTICLE("ARTICLEID");
+
+        private final String column;
+        private final Level parent;
+
+        Level(String column) {
+            this(column, null);
+        }
+
+        Level(String column, Level parent) {
+            this.column = column;
+            this.parent = parent;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * The level this one is only unique within, or null.
+         */
+        public Level getParent() {
+            return parent;
+        }
+
+        public String getParameter() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * @throws IllegalArgumentException naming the valid levels if there is no level of that name
+         */
+        public static Level of(String parameter) {
+            for (Level level : values()) {
+                if (level.getParameter().equals(parameter.trim().toLowerCase(Locale.ROOT))) {
+                    return level;
+                }
+            }
+            StringBuilder names = new StringBuilder();
+            for (Level level : values()) {
+                names.append(names.length() == 0 ? "" : ", ").append(level.getParameter());
+            }
+            throw new IllegalArgumentException("Unknown level \"" + parameter.trim() + "\", expected one of " + names);
+        }
+    }
+
+    private final SessionFactory sessionFactory;
+    private final Metrics metrics;
+
+    @Inject
+    public ExportHandler(SessionFactory sessionFactory, Metrics metrics) {
+        this.sessionFactory = sessionFactory;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(String s, Request baseRequest, HttpServletRequest request, HttpServletResponse
+            response) throws IOException, ServletException {
+        baseRequest.setHandled(true);
+
+        // Parse the slice; only known levels and integer ids make it into the statement
+        List<Level> groupBy = new ArrayList<>();
+        List<Integer> filterValues = new ArrayList<>();
+        StringBuilder where = new StringBuilder();
+        try {
+            for (String level : request.getParameter("groupBy") == null ? new String[] { "shop", "month", "article" } :
+                    request.getParameter("groupBy").split(",")) {
+                addLevel(groupBy, Level.of(level));
+            }
+            for (Level level : Level.values()) {
+                String values = request.getParameter(level.getParameter());
+                if (values == null) {
+                    continue;
+                }
+                where.append(where.length() == 0 ? "\nWHERE " : "\nAND ").append(level.getColumn()).append(" IN (");
+                String[] ids = values.split(",");
+                for (int i = 0; i < ids.length; i++) {
+                    where.append(i == 0 ? "?" : ", ?");
+                    try {
+                        filterValues.add(Integer.parseInt(ids[i].trim()));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Not an id of a " + level.getParameter() + ": \"" +
+                                ids[i].trim() + "\"");
+                    }
+                }
+                where.append(')');
+            }
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid slice: " + e.getMessage());
+            return;
+        }
+
+        boolean binary = "columnar".equals(request.getParameter("format"));
+        StringBuilder columns = new StringBuilder();
+        for (Level level : groupBy) {
+            columns.append(level.getColumn()).append(", ");
+        }
+        String groupColumns = columns.substring(0, columns.length() - 2);
+        String sql = "SELECT " + columns + "SUM(AMOUNT), SUM(TURNOVER)\n" +
+                "FROM STAR" + where + "\n" +
+                "GROUP BY " + groupColumns + "\n" +
+                "ORDER BY " + groupColumns;
+
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (binary) {
+            response.setContentType("application/octet-stream");
+            response.setHeader("Content-Disposition", "attachment; filename=\"export.bin\"");
+        } else {
+            response.setContentType("text/csv;charset=utf-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"export.csv\"");
+        }
+
+        long[] rows = new long[1];
+        Session session = sessionFactory.openSession();
+        try {
+            session.doWork(connection -> {
+                PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                statement.setFetchSize(FETCH_SIZE);
+                for (int i = 0; i < filterValues.size(); i++) {
+                    statement.setInt(i + 1, filterValues.get(i));
+                }
+
+                long queryStart = System.nanoTime();
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    metrics.timer("jdbc.export.execute").stop(queryStart);
+                    queryStart = System.nanoTime();
+                    rows[0] = binary ? writeColumnar(resultSet, groupBy, response.getOutputStream()) :
+                            writeCsv(resultSet, groupBy, response.getWriter());
+                    metrics.timer("export.write").stop(queryStart);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    statement.close();
+                }
+            });
+        } finally {
+            session.close();
+        }
+
+        metrics.count("export.rows", rows[0]);
+    }
+
+    /**
+     * Adds a level to group by, preceded by its parents.
+     */
+    private static void addLevel(List<Level> groupBy, Level level) {
+        if (level.getParent() != null) {
+            addLevel(groupBy, level.getParent());
+        }
+        if (!groupBy.contains(level)) {
+            groupBy.add(level);
+        }
+    }
+
+    private static long writeCsv(ResultSet resultSet, List<Level> groupBy, Writer out) throws SQLException,
+            IOException {
+        int levels = groupBy.size();
+        for (Level level : groupBy) {
+            out.write(level.getParameter());
+            out.write(';');
+        }
+        out.write("amount;turnover\n");
+
+        StringBuilder line = new StringBuilder(128);
+        long rows = 0;
+        while (resultSet.next()) {
+            line.setLength(0);
+            for (int i = 1; i <= levels; i++) {
+                line.append(resultSet.getInt(i)).append(';');
+            }
+            line.append(resultSet.getLong(levels + 1)).append(';').append(resultSet.getDouble(levels + 2))
+                    .append('\n');
+            out.append(line);
+
+            if (++rows % CHUNK_ROWS == 0) {
+                out.flush();
+            }
+        }
+        out.flush();
+        return rows;
+    }
+
+    private static long writeColumnar(ResultSet resultSet, List<Level> groupBy, OutputStream stream) throws
+            SQLException, IOException {
+        int levels = groupBy.size();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 64 * 1024));
+        out.write("DISC".getBytes(StandardCharsets.US_ASCII));
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(levels);
+        for (Level level : groupBy) {
+            out.writeUTF(level.getParameter());
+        }
+
+        int[][] ids = new int[levels][CHUNK_ROWS];
+        long[] amounts = new long[CHUNK_ROWS];
+        double[] turnovers = new double[CHUNK_ROWS];
+        int fill = 0;
+        long rows = 0;
+        while (resultSet.next()) {
+            for (int i = 0; i < levels; i++) {
+                ids[i][fill] = resultSet.getInt(i + 1);
+            }
+            amounts[fill] = resultSet.getLong(levels + 1);
+            turnovers[fill] = resultSet.getDouble(levels + 2);
+            rows++;
+
+            if (++fill == CHUNK_ROWS) {
+                writeChunk(out, ids, amounts, turnovers, fill);
+                fill = 0;
+            }
+        }
+        if (fill > 0) {
+            writeChunk(out, ids, amounts, turnovers, fill);
+        }
+        out.writeInt(0);
+        out.flush();
+        return rows;
+    }
+
+    private static void writeChunk(DataOutputStream out, int[][] ids, long[] amounts, double[] turnovers, int rows)
+            throws IOException {
+        out.writeInt(rows);
+        for (int[] column : ids) {
+            for (int i = 0; i < rows; i++) {
+                out.writeInt(column[i]);
+            }
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeLong(amounts[i]);
+        }
+        for (int i = 0; i < rows; i++) {
+            out.writeDouble(turnovers[i]);
+        }
+        out.flush();
+    }
+}
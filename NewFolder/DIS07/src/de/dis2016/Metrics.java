@@ -0,0 +1,153 @@
+package de.dis2016;
+
+import com.google.inject.Singleton;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide timers and counters, rendered as plain text by the {@code /metrics} endpoint.
+ *
+ * Recording is lock-free and allocation-free, so the metrics can stay enabled in production. Timers keep a
+ * log-linear histogram with 8 sub-buckets per power of two, so percentiles are accurate to about 12%.
+ */
+@Singleton
+public class Metrics {
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the timer of the given name, creating it on first use.
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        return timer != null ? timer : timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * Adds to the counter of the given name.
+     */
+    public void count(String name, long delta) {
+        LongAdder counter = counters.get(name);
+        (counter != null ? counter : counters.computeIfAbsent(name, key -> new LongAdder())).add(delta);
+    }
+
+    /**
+     * Renders all metrics, one {@code name value} pair per line. Durations are in milliseconds.
+     */
+    public String render() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            out.append(name).append("_count ").append(timer.getCount()).append('\n');
+            line(out, name + "_mean_ms", timer.getCount() == 0 ? 0 : timer.getTotalNanos() / timer.getCount());
+            line(out, name + "_p50_ms", timer.percentile(0.5));
+            line(out, name + "_p99_ms", timer.percentile(0.99));
+            line(out, name + "_max_ms", timer.getMaxNanos());
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(counters).entrySet()) {
+            out.append(entry.getKey()).append(' ').append(entry.getValue().sum()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, long nanos) {
+        out.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", nanos / 1e6)).append('\n');
+    }
+
+    /**
+     * A latency histogram.
+     */
+    public static class Timer {
+
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records the time elapsed since start, as returned by {@link System#nanoTime()}.
+         */
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                nanos = 0;
+            }
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            total.add(nanos);
+
+            long current;
+            while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+                // retry
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getTotalNanos() {
+            return total.sum();
+        }
+
+        public long getMaxNanos() {
+            return max.get();
+        }
+
+        /**
+         * Upper bound of the bucket that contains the given quantile.
+         */
+        public long percentile(double quantile) {
+            long[] snapshot = new long[buckets.length()];
+            long sum = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = buckets.get(i);
+                sum += snapshot[i];
+            }
+            if (sum == 0) {
+                return 0;
+            }
+
+            long rank = (long) Math.ceil(quantile * sum);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            long sub = bucket % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
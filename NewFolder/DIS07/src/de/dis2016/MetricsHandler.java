@@ -0,0 +1,32 @@
+package de.dis2016;
+
+import com.google.inject.Inject;
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+/**
+ * Serves the current {@link Metrics} as plain text.
+ */
+public class MetricsHandler extends AbstractHandler {
+
+    private final Metrics metrics;
+
+    @Inject
+    public MetricsHandler(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void handle(String s, Request baseRequest, HttpServletRequest request, HttpServletResponse
+            response) throws IOException, ServletException {
+        response.setContentType("text/plain;charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setStatus(HttpServletResponse.SC_OK);
+        baseRequest.setHandled(true);
+        response.getWriter().print(metrics.render());
+    }
+}
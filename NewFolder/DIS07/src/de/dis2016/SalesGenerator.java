@@ -0,0 +1,246 @@
+package de.dis2016;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates a synthetic data set for scale tests: an SQL script that creates and fills the {@code DB2INST1} source
+ * tables and a matching {@code sales.csv}.
+ *
+ * Shops and articles are drawn from a Zipf distribution, so a few of them account for most of the sales, like in the
+ * real data. Usage:
+ *
+ * <pre>
+ * SalesGenerator &lt;output dir&gt; [sales=1000000] [shops=500] [articles=2000] [skew=1.1] [seed=42]
+ * </pre>
+ */
+public class SalesGenerator {
+
+    private static final String[] COUNTRIES = { "Deutschland", "Oesterreich", "Schweiz" };
+    private static final int[] YEARS = { 2013, 2014 };
+    private static final int ROWS_PER_INSERT = 500;
+
+    private final Random random;
+    private final int shops;
+    private final int articles;
+    private final double skew;
+    private final double[] prices;
+
+    public SalesGenerator(int shops, int articles, double skew, long seed) {
+        this.random = new Random(seed);
+        this.shops = shops;
+        this.articles = articles;
+        this.skew = skew;
+        this.prices = new double[articles];
+        for (int i = 0; i < articles; i++) {
+            prices[i] = 1 + random.nextInt(100000) / 100.0;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SalesGenerator <output dir> [sales] [shops] [articles] [skew] [seed]");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        long sales = args.length > 1 ? Long.parseLong(args[1]) : 1000000;
+        int shops = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int articles = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        double skew = args.length > 4 ? Double.parseDouble(args[4]) : 1.1;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 42;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+
+        SalesGenerator generator = new SalesGenerator(shops, articles, skew, seed);
+
+        long start = System.nanoTime();
+        generator.writeSourceTables(new File(dir, "db2inst1.sql"));
+        generator.writeSales(new File(dir, "sales.csv"), sales);
+        System.out.format("Generated %d sales for %d shops and %d articles in %d ms%n", sales, shops, articles,
+                (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Writes the source schema, one statement per line.
+     */
+    public void writeSourceTables(File file) throws IOException {
+        int regions = Math.max(1, shops / 25);
+        int cities = Math.max(regions, shops / 2);
+        int groups = Math.max(1, articles / 20);
+        int families = Math.max(1, groups / 5);
+        int categories = Math.max(1, families / 4);
+
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+            String[] tables = { "ArticleID", "ProductGroupID", "ProductFamilyID", "ProductCategoryID", "ShopID",
+                    "StadtID", "RegionID", "LandID" };
+            for (String table : tables) {
+                out.println("DROP TABLE IF EXISTS DB2INST1." + table + ";");
+            }
+
+            out.println("CREATE TABLE DB2INST1.LandID (LandID INTEGER NOT NULL PRIMARY KEY, name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.RegionID (RegionID INTEGER NOT NULL PRIMARY KEY, LandID INTEGER, " +
+                    "name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.StadtID (StadtID INTEGER NOT NULL PRIMARY KEY, RegionID INTEGER, " +
+                    "name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.ShopID (ShopID INTEGER NOT NULL PRIMARY KEY, StadtID INTEGER, " +
+                    "name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.ProductCategoryID (ProductCategoryID INTEGER NOT NULL PRIMARY KEY, " +
+                    "name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.ProductFamilyID (ProductFamilyID INTEGER NOT NULL PRIMARY KEY, " +
+                    "ProductCategoryID INTEGER, name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.ProductGroupID (ProductGroupID INTEGER NOT NULL PRIMARY KEY, " +
+                    "ProductFamilyID INTEGER, name VARCHAR(255));");
+            out.println("CREATE TABLE DB2INST1.ArticleID (ArticleID INTEGER NOT NULL PRIMARY KEY, " +
+                    "ProductGroupID INTEGER, name VARCHAR(255), preis DECIMAL(10, 2));");
+
+            List<String> rows = new ArrayList<>();
+            for (int i = 0; i < COUNTRIES.length; i++) {
+                rows.add(String.format("(%d, '%s')", i + 1, COUNTRIES[i]));
+            }
+            insert(out, "LandID", rows);
+            for (int i = 0; i < regions; i++) {
+                rows.add(String.format("(%d, %d, 'Region %d')", i + 1, i % COUNTRIES.length + 1, i + 1));
+            }
+            insert(out, "RegionID", rows);
+            for (int i = 0; i < cities; i++) {
+                rows.add(String.format("(%d, %d, 'Stadt %d')", i + 1, i % regions + 1, i + 1));
+            }
+            insert(out, "StadtID", rows);
+            for (int i = 0; i < shops; i++) {
+                rows.add(String.format("(%d, %d, '%s')", i + 1, i % cities + 1, shopName(i)));
+            }
+            insert(out, "ShopID", rows);
+
+            for (int i = 0; i < categories; i++) {
+                rows.add(String.format("(%d, 'Kategorie %d')", i + 1, i + 1));
+            }
+            insert(out, "ProductCategoryID", rows);
+            for (int i = 0; i < families; i++) {
+                rows.add(String.format("(%d, %d, 'Familie %d')", i + 1, i % categories + 1, i + 1));
+            }
+            insert(out, "ProductFamilyID", rows);
+            for (int i = 0; i < groups; i++) {
+                rows.add(String.format("(%d, %d, 'Gruppe %d')", i + 1, i % families + 1, i + 1));
+            }
+            insert(out, "ProductGroupID", rows);
+            for (int i = 0; i < articles; i++) {
+                rows.add(String.format(Locale.ROOT, "(%d, %d, '%s', %.2f)", i + 1, i % groups + 1, articleName(i),
+                        prices[i]));
+            }
+            insert(out, "ArticleID", rows);
+        }
+    }
+
+    /**
+     * Writes the sales CSV in the format of the original export: ISO-8859-1, semicolon separated, German decimals.
+     */
+    public void writeSales(File file, long sales) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file.toPath(), Charset.forName("ISO-8859-1"))) {
+            writeSales(out, sales);
+        }
+    }
+
+    /**
+     * Writes the sales CSV, including its header, to a writer.
+     */
+    public void writeSales(Writer out, long sales) throws IOException {
+        double[] shopCdf = zipfCdf(shops, skew);
+        double[] articleCdf = zipfCdf(articles, skew);
+
+        // Shuffle ranks, so popularity does not follow the ids
+        int[] shopRank = permutation(shops);
+        int[] articleRank = permutation(articles);
+
+        out.write("Datum;Shop;Artikel;Verkauft;Umsatz\n");
+
+        StringBuilder line = new StringBuilder(96);
+        for (long i = 0; i < sales; i++) {
+            int shop = shopRank[sample(shopCdf)];
+            int article = articleRank[sample(articleCdf)];
+            int amount = 1 + random.nextInt(20);
+            int year = YEARS[random.nextInt(YEARS.length)];
+            int month = 1 + random.nextInt(12);
+            int day = 1 + random.nextInt(28);
+
+            line.setLength(0);
+            pad(line, day).append('.');
+            pad(line, month).append('.').append(year).append(';');
+            line.append(shopName(shop)).append(';');
+            line.append(articleName(article)).append(';');
+            line.append(amount).append(';');
+            long cents = Math.round(amount * prices[article] * 100);
+            line.append(cents / 100).append(',');
+            pad(line, (int) (cents % 100)).append('\n');
+            out.append(line);
+        }
+    }
+
+    private static String shopName(int shop) {
+        return "Superstore " + (shop + 1);
+    }
+
+    private static String articleName(int article) {
+        return "Artikel " + (article + 1);
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value) {
+        if (value < 10) {
+            builder.append('0');
+        }
+        return builder.append(value);
+    }
+
+    private static void insert(PrintWriter out, String table, List<String> rows) {
+        for (int i = 0; i < rows.size(); i += ROWS_PER_INSERT) {
+            List<String> chunk = rows.subList(i, Math.min(rows.size(), i + ROWS_PER_INSERT));
+            out.println("INSERT INTO DB2INST1." + table + " VALUES " + String.join(", ", chunk) + ";");
+        }
+        rows.clear();
+    }
+
+    private int[] permutation(int n) {
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = result[i];
+            result[i] = result[j];
+            result[j] = tmp;
+        }
+        return result;
+    }
+
+    private int sample(double[] cdf) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, index >= 0 ? index : -index - 1);
+    }
+
+    private static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+}
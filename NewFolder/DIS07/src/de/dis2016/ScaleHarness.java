@@ -0,0 +1,121 @@
+package de.dis2016;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Runs the ETL and the dashboard query against a data set written by {@link SalesGenerator} and reports load
+ * throughput and query latency. Meant to be run with {@code -Ddis.profile=embedded}:
+ *
+ * <pre>
+ * ScaleHarness &lt;data dir&gt; [queries=50]
+ * </pre>
+ */
+public class ScaleHarness {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ScaleHarness <data dir> [queries]");
+            System.exit(1);
+        }
+
+        File dir = new File(args[0]);
+        int queries = args.length > 1 ? Math.max(1, Integer.parseInt(args[1])) : 50;
+
+        Injector injector = Guice.createInjector(new DataWarehouseModule());
+
+        // Create and fill the source schema
+        long start = System.nanoTime();
+        createSourceTables(injector.getInstance(SessionFactory.class), new File(dir, "db2inst1.sql"));
+        System.out.format("Created source tables in %d ms%n", (System.nanoTime() - start) / 1000000);
+
+        // Full load
+        start = System.nanoTime();
+        injector.getInstance(WarehouseLoader.class).run(new File(dir, "sales.csv"));
+        System.out.format("ETL finished in %d ms%n", (System.nanoTime() - start) / 1000000);
+
+        // Dashboard query, the first run warms up the dimension cache
+        DataHandler handler = injector.getInstance(DataHandler.class);
+        for (int year : new int[] { 2013, 2014 }) {
+            handler.query(year);
+
+            long[] latencies = new long[queries];
+            for (int i = 0; i < queries; i++) {
+                long queryStart = System.nanoTime();
+                handler.query(year);
+                latencies[i] = System.nanoTime() - queryStart;
+            }
+            Arrays.sort(latencies);
+
+            System.out.format("/data?year=%d: p50 %.1f ms, p99 %.1f ms, max %.1f ms over %d queries%n", year,
+                    percentile(latencies, 0.5), percentile(latencies, 0.99), latencies[queries - 1] / 1e6, queries);
+        }
+    }
+
+    /**
+     * Runs a script written by {@link SalesGenerator#writeSourceTables(File)}, which drops and refills the
+     * {@code DB2INST1} tables.
+     */
+    public static void createSourceTables(SessionFactory sessionFactory, File script) throws IOException {
+        List<String> statements = splitStatements(Files.readAllLines(script.toPath(), StandardCharsets.UTF_8));
+        Session session = sessionFactory.openSession();
+        try {
+            Transaction tx = session.beginTransaction();
+            session.doWork(connection -> {
+                for (String statement : statements) {
+                    try (PreparedStatement prepared = connection.prepareStatement(statement)) {
+                        prepared.execute();
+                    }
+                }
+            });
+            tx.commit();
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Splits a SQL script into its statements. Statements may span several lines and end with a semicolon at the end
+     * of a line, lines starting with {@code --} are comments.
+     */
+    static List<String> splitStatements(List<String> lines) {
+        List<String> statements = new ArrayList<>();
+        StringBuilder statement = new StringBuilder();
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("--")) {
+                continue;
+            }
+            if (statement.length() > 0) {
+                statement.append('\n');
+            }
+            if (trimmed.endsWith(";")) {
+                statement.append(trimmed, 0, trimmed.length() - 1);
+                statements.add(statement.toString());
+                statement.setLength(0);
+            } else {
+                statement.append(trimmed);
+            }
+        }
+        if (statement.length() > 0) {
+            statements.add(statement.toString());
+        }
+        return statements;
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,83 @@
+package de.dis2016;
+
+import de.dis2016.entities.Article;
+import de.dis2016.entities.Shop;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Queries and row mappers for the dimension tables of the external source schema {@code DB2INST1}.
+ */
+public final class SourceTables {
+
+    /**
+     * Selects all articles joined with their product group, family and category.
+     */
+    public static final String ARTICLE_QUERY = "SELECT\n" +
+            "  a.ArticleID AS articleId,\n" +
+            "  g.ProductGroupID AS groupId,\n" +
+            "  f.ProductFamilyID AS familyId,\n" +
+            "  cat.ProductCategoryID AS categoryId,\n" +
+            "  cat.name AS category,\n" +
+            "  f.name AS family,\n" +
+            "  g.name AS \"GROUP\",\n" +
+            "  a.name AS article,\n" +
+            "  a.preis AS price\n" +
+            "FROM DB2INST1.ArticleID AS a\n" +
+            "INNER JOIN DB2INST1.ProductGroupID AS g ON a.ProductGroupID = g.ProductGroupID\n" +
+            "INNER JOIN DB2INST1.ProductFamilyID AS f ON g.ProductFamilyID = f.ProductFamilyID\n" +
+            "INNER JOIN DB2INST1.ProductCategoryID AS cat ON f.ProductCategoryID = cat.ProductCategoryID\n";
+
+    /**
+     * Selects all shops joined with their city, region and country.
+     */
+    public static final String SHOP_QUERY = "SELECT \n" +
+            "  s.ShopId AS shopId,\n" +
+            "  c.StadtId AS cityId,\n" +
+            "  r.REGIONID AS regionId,\n" +
+            "  l.LANDID AS countryId,\n" +
+            "  l.name AS country,\n" +
+            "  r.name AS region,\n" +
+            "  c.name AS city,\n" +
+            "  s.name AS shopName\n" +
+            "FROM DB2INST1.ShopID AS s\n" +
+            "INNER JOIN DB2INST1.StadtID AS c ON c.StadtID = s.StadtID\n" +
+            "INNER JOIN DB2INST1.RegionID AS r ON c.RegionID = r.RegionID\n" +
+            "INNER JOIN DB2INST1.LandID AS l ON l.LandID = r.LandID";
+
+    private SourceTables() {
+    }
+
+    /**
+     * Maps the current row of an {@link #ARTICLE_QUERY} result to an article.
+     */
+    public static Article readArticle(ResultSet result) throws SQLException {
+        Article article = new Article();
+        article.setArticleId(result.getInt("articleid"));
+        article.setGroupId(result.getInt("groupId"));
+        article.setFamilyId(result.getInt("familyId"));
+        article.setCategoryId(result.getInt("categoryId"));
+        article.setCategory(result.getString("category"));
+        article.setFamily(result.getString("family"));
+        article.setGroup(result.getString("group"));
+        article.setArticle(result.getString("article"));
+        article.setPrice(result.getFloat("price"));
+        return article;
+    }
+
+    /**
+     * Maps the current row of a {@link #SHOP_QUERY} result to a shop.
+     */
+    public static Shop readShop(ResultSet result) throws SQLException {
+        Shop shop = new Shop();
+        shop.setShopId(result.getInt("shopid"));
+        shop.setCityId(result.getInt("cityid"));
+        shop.setRegionId(result.getInt("regionid"));
+        shop.setCountryId(result.getInt("countryid"));
+        shop.setCountryName(result.getString("country"));
+        shop.setRegionName(result.getString("region"));
+        shop.setCityName(result.getString("city"));
+        shop.setShopName(result.getString("shopName"));
+        return shop;
+    }
+}
@@ -0,0 +1,44 @@
+package de.dis2016;
+
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+/**
+ * Records every request a handler takes in the timer {@code http.<name>} and counts responses with a status of 500
+ * or above, including exceptions, in {@code http.<name>.errors}. Requests the handler leaves to the next one are not
+ * recorded.
+ */
+public class TimedHandler extends HandlerWrapper {
+
+    private final String name;
+    private final Metrics metrics;
+
+    public TimedHandler(String name, Metrics metrics, Handler handler) {
+        this.name = "http." + name;
+        this.metrics = metrics;
+        setHandler(handler);
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse
+            response) throws IOException, ServletException {
+        long start = System.nanoTime();
+        boolean threw = true;
+        try {
+            super.handle(target, baseRequest, request, response);
+            threw = false;
+        } finally {
+            if (threw || baseRequest.isHandled()) {
+                metrics.timer(name).stop(start);
+                if (threw || response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR) {
+                    metrics.count(name + ".errors", 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package de.dis2016;
+
+import com.google.inject.Inject;
+import de.dis2016.entities.Article;
+import de.dis2016.entities.Sale;
+import de.dis2016.entities.Shop;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.Transaction;
+
+/**
+ * Full reload of the warehouse: copies both dimensions from {@code DB2INST1}, reads the sales CSV and rebuilds the
+ * star schema. Every stage reports its row count and throughput.
+ */
+public class WarehouseLoader {
+
+    private static final Pattern DATE_PATTERN = Pattern.compile("^(\\d{2})\\.(\\d{2})\\.(\\d{4})$");
+    private static final Charset CSV_CHARSET = Charset.forName("ISO-8859-1");
+    private static final int SALES_PER_TRANSACTION = 100;
+
+    private final SessionFactory sessionFactory;
+    private final Metrics metrics;
+
+    @Inject
+    public WarehouseLoader(SessionFactory sessionFactory, Metrics metrics) {
+        this.sessionFactory = sessionFactory;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Empties and reloads all warehouse tables.
+     *
+     * @param salesCsv the sales CSV, semicolon separated with a header row
+     */
+    public void run(File salesCsv) {
+        Session session = sessionFactory.openSession();
+        try {
+            session.doWork(connection -> {
+                loadArticles(session, connection);
+                loadShops(session, connection);
+                loadSales(session, connection, salesCsv);
+                buildStar(session, connection);
+            });
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Converts one CSV record to a sale.
+     */
+    public static Sale toSale(CSVRecord record) {
+        Sale sale = new Sale();
+        sale.setShopName(record.get("Shop"));
+        sale.setArticle(record.get("Artikel"));
+        sale.setAmount(Integer.parseInt(record.get("Verkauft")));
+        sale.setTurnover(Float.parseFloat(record.get("Umsatz").replace(',', '.')));
+
+        // Split date into y, m, d
+        String date = record.get("Datum");
+        Matcher matcher = DATE_PATTERN.matcher(date);
+
+        if (matcher.matches()) {
+            sale.setDay(Integer.parseInt(matcher.group(1)));
+            sale.setMonth(Integer.parseInt(matcher.group(2)));
+            sale.setYear(Integer.parseInt(matcher.group(3)));
+        }
+
+        return sale;
+    }
+
+    /**
+     * Opens the sales CSV the way the loader reads it.
+     */
+    public static CSVParser openSales(File salesCsv) throws IOException {
+        return CSVParser.parse(salesCsv, CSV_CHARSET, CSVFormat.DEFAULT.withHeader().withDelimiter(';'));
+    }
+
+    private void loadArticles(Session session, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+
+        // Empty all articles
+        connection.prepareStatement("DELETE FROM VSISP66.ARTICLE").execute();
+
+        // Load from external DB
+        PreparedStatement statement = connection.prepareStatement(SourceTables.ARTICLE_QUERY);
+        ResultSet result = statement.executeQuery();
+
+        Transaction tx = session.beginTransaction();
+        int rows = 0;
+        while (result.next()) {
+            Article article = SourceTables.readArticle(result);
+
+            session.save(article);
+            rows++;
+        }
+
+        session.flush();
+        tx.commit();
+
+        report("articles", rows, start);
+    }
+
+    private void loadShops(Session session, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+
+        // Empty all shops
+        connection.prepareStatement("DELETE FROM VSISP66.SHOP").execute();
+
+        // Load shops from external DB
+        PreparedStatement statement = connection.prepareStatement(SourceTables.SHOP_QUERY);
+        ResultSet result = statement.executeQuery();
+
+        Transaction tx = session.beginTransaction();
+        int rows = 0;
+        while (result.next()) {
+            Shop shop = SourceTables.readShop(result);
+
+            session.save(shop);
+            rows++;
+        }
+
+        session.flush();
+        tx.commit();
+
+        report("shops", rows, start);
+    }
+
+    private void loadSales(Session session, Connection connection, File salesCsv) throws SQLException {
+        long start = System.nanoTime();
+
+        // Empty all sales
+        connection.prepareStatement("DELETE FROM VSISP66.SALE").execute();
+
+        Transaction tx = session.beginTransaction();
+        int rows = 0;
+
+        // Open CSV
+        try (CSVParser parser = openSales(salesCsv)) {
+            for (CSVRecord record : parser) {
+                session.save(toSale(record));
+
+                if (++rows % SALES_PER_TRANSACTION == 0) {
+                    session.flush();
+                    session.clear();
+                    tx.commit();
+
+                    tx = session.beginTransaction();
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        session.flush();
+        session.clear();
+        tx.commit();
+
+        report("sales", rows, start);
+    }
+
+    private void buildStar(Session session, Connection connection) throws SQLException {
+        long start = System.nanoTime();
+
+        // Insert everything into star schema
+        Transaction tx = session.beginTransaction();
+
+        connection.prepareStatement("DELETE FROM VSISP66.STAR").execute();
+
+        int rows = connection.prepareStatement("INSERT INTO STAR (SHOPID, SALESID, REGIONID, GROUPID, FAMILYID, " +
+                "COUNTRYID, " +
+                "CITYID, CATEGORYID, ARTICLEID, AMOUNT, ARTICLE, CATEGORY, CITYNAME, COUNTRYNAME, DAY, FAMILY, " +
+                "\"GROUP\", MONTH, PRICE, REGIONNAME, SHOPNAME, TURNOVER, YEAR, SHOPVERSION, ARTICLEVERSION)\n" +
+                "SELECT\n" +
+                "  SHOPID, SALESID, REGIONID, GROUPID, FAMILYID, COUNTRYID, CITYID, CATEGORYID, ARTICLEID, " +
+                "AMOUNT, SALE.ARTICLE, CATEGORY, CITYNAME, COUNTRYNAME, DAY, FAMILY, \"GROUP\", MONTH, PRICE, " +
+                "REGIONNAME, SALE.SHOPNAME, TURNOVER, YEAR, S.VERSION, A.VERSION\n" +
+                "FROM SALE\n" +
+                "INNER JOIN SHOP AS S ON S.SHOPNAME = SALE.SHOPNAME AND S.CURRENTVERSION = 1\n" +
+                "INNER JOIN ARTICLE AS A ON A.ARTICLE = SALE.ARTICLE AND A.CURRENTVERSION = 1").executeUpdate();
+
+        tx.commit();
+
+        report("star rows", rows, start);
+    }
+
+    private void report(String stage, int rows, long start) {
+        String name = "etl." + stage.replace(' ', '_');
+        metrics.timer(name).stop(start);
+        metrics.count(name + ".rows", rows);
+
+        long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.out.format("Loaded %d %s in %d ms (%d rows/s)%n", rows, stage, millis, rows * 1000L / millis);
+    }
+}
@@ -0,0 +1,134 @@
+package de.dis2016.bench;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.mongodb.BasicDBObject;
+import com.mongodb.util.JSON;
+import de.dis2016.DataHandler;
+import de.dis2016.DataWarehouseModule;
+import de.dis2016.SalesGenerator;
+import de.dis2016.ScaleHarness;
+import de.dis2016.WarehouseLoader;
+import de.dis2016.entities.Sale;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the warehouse code paths, run on a data set written by {@link SalesGenerator} in the embedded
+ * profile (see {@code hibernate-embedded.cfg.xml}):
+ *
+ * <ul>
+ *     <li>{@code parseSales}: reading the sales CSV into sales with {@link WarehouseLoader#toSale}</li>
+ *     <li>{@code load}: a full reload of the warehouse with {@link WarehouseLoader#run(File)}</li>
+ *     <li>{@code query}: the dashboard query of {@link DataHandler#query(int)}</li>
+ *     <li>{@code serialize}: the JSON of its result, as sent by the {@link DataHandler}</li>
+ * </ul>
+ *
+ * Usage: {@code WarehouseBenchmarks [JMH options]}, the options of {@code org.openjdk.jmh.Main}, e.g.
+ * {@code -p sales=100000} for a larger data set or {@code -prof gc} for the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarehouseBenchmarks {
+
+    private static final int SHOPS = 100;
+    private static final int ARTICLES = 500;
+    private static final int YEAR = 2013;
+
+    /**
+     * A generated data set, loaded once into the warehouse.
+     */
+    @State(Scope.Benchmark)
+    public static class Warehouse {
+
+        @Param("10000")
+        public int sales;
+
+        File salesCsv;
+        WarehouseLoader loader;
+        DataHandler handler;
+        BasicDBObject payload;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            System.setProperty("dis.profile", System.getProperty("dis.profile", "embedded"));
+
+            File dir = Files.createTempDirectory("dis07-bench").toFile();
+            dir.deleteOnExit();
+            SalesGenerator generator = new SalesGenerator(SHOPS, ARTICLES, 1.1, 42);
+            File sourceTables = new File(dir, "db2inst1.sql");
+            generator.writeSourceTables(sourceTables);
+            sourceTables.deleteOnExit();
+            salesCsv = new File(dir, "sales.csv");
+            generator.writeSales(salesCsv, sales);
+            salesCsv.deleteOnExit();
+
+            Injector injector = Guice.createInjector(new DataWarehouseModule());
+            ScaleHarness.createSourceTables(injector.getInstance(SessionFactory.class), sourceTables);
+            loader = injector.getInstance(WarehouseLoader.class);
+            loader.run(salesCsv);
+
+            handler = injector.getInstance(DataHandler.class);
+            payload = handler.query(YEAR);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Main.main(args.length > 0 ? args : new String[] { WarehouseBenchmarks.class.getName() });
+    }
+
+    @Benchmark
+    public List<Sale> parseSales(Warehouse warehouse) throws IOException {
+        List<Sale> sales = new ArrayList<>(warehouse.sales);
+        try (CSVParser parser = WarehouseLoader.openSales(warehouse.salesCsv)) {
+            for (CSVRecord record : parser) {
+                sales.add(WarehouseLoader.toSale(record));
+            }
+        }
+        return sales;
+    }
+
+    /**
+     * One full reload per operation, so it is measured in single shots instead of timed iterations.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void load(Warehouse warehouse) {
+        warehouse.loader.run(warehouse.salesCsv);
+    }
+
+    @Benchmark
+    public BasicDBObject query(Warehouse warehouse) {
+        return warehouse.handler.query(YEAR);
+    }
+
+    @Benchmark
+    public String serialize(Warehouse warehouse) {
+        return JSON.serialize(warehouse.payload);
+    }
+}
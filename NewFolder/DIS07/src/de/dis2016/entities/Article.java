@@ -31,13 +31,27 @@ public class Article implements Serializable {
 
     @Column
     private String family;
-    @Column
+    @Column(name = "`GROUP`")
     private String group;
     @Column
     private String article;
     @Column
     private double price;
 
+    /**
+     * Version of the article, counted from 1. An article moved back into a group it was in before gets a new version
+     * instead of its old key, so the facts sold in between stay apart.
+     */
+    @Id
+    @Column
+    private int version = 1;
+
+    /**
+     * False once the article was regrouped and a later version replaced this row (slowly-changing dimension type 2).
+     */
+    @Column
+    private boolean currentVersion = true;
+
     public int getArticleId() {
         return articleId;
     }
@@ -109,4 +123,20 @@ public class Article implements Serializable {
     public void setPrice(double price) {
         this.price = price;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public boolean isCurrentVersion() {
+        return currentVersion;
+    }
+
+    public void setCurrentVersion(boolean currentVersion) {
+        this.currentVersion = currentVersion;
+    }
 }
@@ -38,6 +38,20 @@ public class Shop implements Serializable {
     @Column
     private String countryName;
 
+    /**
+     * Version of the shop, counted from 1 and raised whenever the shop moves to another city. Moving back to an
+     * earlier city raises it as well, the old key keeps the sales made there before.
+     */
+    @Id
+    @Column
+    private int version = 1;
+
+    /**
+     * False for rows superseded by a newer version of the same shop (slowly-changing dimension type 2).
+     */
+    @Column
+    private boolean currentVersion = true;
+
     public int getCountryId() {
         return countryId;
     }
@@ -101,4 +115,20 @@ public class Shop implements Serializable {
     public void setCountryName(String countryName) {
         this.countryName = countryName;
     }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public boolean isCurrentVersion() {
+        return currentVersion;
+    }
+
+    public void setCurrentVersion(boolean currentVersion) {
+        this.currentVersion = currentVersion;
+    }
 }
@@ -58,7 +58,7 @@ public class Star implements Serializable {
 
     @Column
     private String family;
-    @Column
+    @Column(name = "`GROUP`")
     private String group;
     @Column
     private double price;
@@ -69,6 +69,18 @@ public class Star implements Serializable {
     @Column
     private String shopName;
 
+    /**
+     * Version of the shop the sale was booked for, see {@link Shop#getVersion()}.
+     */
+    @Column
+    private int shopVersion = 1;
+
+    /**
+     * Version of the article that was sold, see {@link Article#getVersion()}.
+     */
+    @Column
+    private int articleVersion = 1;
+
     @Column
     private int day;
 
@@ -180,6 +192,22 @@ public class Star implements Serializable {
         this.shopName = shopName;
     }
 
+    public int getShopVersion() {
+        return shopVersion;
+    }
+
+    public void setShopVersion(int shopVersion) {
+        this.shopVersion = shopVersion;
+    }
+
+    public int getArticleVersion() {
+        return articleVersion;
+    }
+
+    public void setArticleVersion(int articleVersion) {
+        this.articleVersion = articleVersion;
+    }
+
     public int getDay() {
         return day;
     }
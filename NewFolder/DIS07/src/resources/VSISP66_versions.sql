@@ -0,0 +1,18 @@
+-- Adds the version columns used by de.dis2016.DimensionSync to an existing VSISP66 warehouse (DB2).
+-- Schemas created by Hibernate already have them. For the embedded H2 profile delete build/dis07.* and run --etl.
+
+-- CURRENTVERSION: 1 for the current row of a shop or article, 0 for expired ones.
+-- VERSION: numbers the versions of a shop or article from 1 and is part of the key.
+ALTER TABLE VSISP66.SHOP ADD COLUMN CURRENTVERSION SMALLINT NOT NULL WITH DEFAULT 1;
+ALTER TABLE VSISP66.SHOP ADD COLUMN VERSION INTEGER NOT NULL WITH DEFAULT 1;
+ALTER TABLE VSISP66.SHOP DROP PRIMARY KEY;
+ALTER TABLE VSISP66.SHOP ADD PRIMARY KEY (COUNTRYID, REGIONID, CITYID, SHOPID, VERSION);
+
+ALTER TABLE VSISP66.ARTICLE ADD COLUMN CURRENTVERSION SMALLINT NOT NULL WITH DEFAULT 1;
+ALTER TABLE VSISP66.ARTICLE ADD COLUMN VERSION INTEGER NOT NULL WITH DEFAULT 1;
+ALTER TABLE VSISP66.ARTICLE DROP PRIMARY KEY;
+ALTER TABLE VSISP66.ARTICLE ADD PRIMARY KEY (ARTICLEID, GROUPID, FAMILYID, CATEGORYID, VERSION);
+
+-- The versions of the shop and the article a fact was booked against.
+ALTER TABLE VSISP66.STAR ADD COLUMN SHOPVERSION INTEGER NOT NULL WITH DEFAULT 1;
+ALTER TABLE VSISP66.STAR ADD COLUMN ARTICLEVERSION INTEGER NOT NULL WITH DEFAULT 1;